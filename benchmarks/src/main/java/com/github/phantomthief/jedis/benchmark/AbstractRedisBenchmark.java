@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import java.io.IOException;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * starts a {@link RespServer}, or uses the redis given by {@code -Dredis.port}
+ * (and {@code -Dredis.host}), which is flushed before each trial.
+ */
+public abstract class AbstractRedisBenchmark {
+
+    private RespServer server;
+    protected JedisPool pool;
+
+    protected void startRedis() throws IOException {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(64);
+        config.setMaxIdle(64);
+        String port = System.getProperty("redis.port");
+        if (port == null) {
+            server = new RespServer();
+            pool = new JedisPool(config, "127.0.0.1", server.getPort());
+        } else {
+            pool = new JedisPool(config, System.getProperty("redis.host", "127.0.0.1"),
+                    Integer.parseInt(port));
+        }
+        try (Jedis jedis = pool.getResource()) {
+            jedis.flushAll();
+        }
+    }
+
+    protected void stopRedis() throws IOException {
+        pool.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * same arguments as the jmh main, with the gc profiler always on
+ * to report allocation rates next to throughput.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder() //
+                .parent(new CommandLineOptions(args)) //
+                .addProfiler(GCProfiler.class) //
+                .build()).run();
+    }
+}
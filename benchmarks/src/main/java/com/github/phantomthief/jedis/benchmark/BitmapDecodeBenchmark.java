@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntSet;
+import com.github.phantomthief.jedis.JedisUtils;
+
+/**
+ * {@link JedisUtils#toBitSet}/{@link JedisUtils#toIntSet} against the bit-by-bit loops
+ * they replaced, on sparse and dense bitmaps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BitmapDecodeBenchmark {
+
+    @Param({ "1024", "131072" })
+    private int bytes;
+
+    @Param({ "0.01", "0.5" })
+    private double density;
+
+    private byte[] bitmap;
+
+    private static BitSet loopToBitSet(byte[] bytes) {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < (bytes.length * 8); i++) {
+            if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    private static IntSet loopToIntSet(byte[] bytes) {
+        IntSet bits = new IntHashSet();
+        for (int i = 0; i < (bytes.length * 8); i++) {
+            if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
+                bits.add(i);
+            }
+        }
+        return bits;
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        bitmap = new byte[bytes];
+        for (int i = 0; i < bytes * 8; i++) {
+            if (random.nextDouble() < density) {
+                bitmap[i >>> 3] |= 0x80 >>> (i & 7);
+            }
+        }
+    }
+
+    @Benchmark
+    public BitSet toBitSet() {
+        return JedisUtils.toBitSet(bitmap);
+    }
+
+    @Benchmark
+    public BitSet loopToBitSet() {
+        return loopToBitSet(bitmap);
+    }
+
+    @Benchmark
+    public IntSet toIntSet() {
+        return JedisUtils.toIntSet(bitmap);
+    }
+
+    @Benchmark
+    public IntSet loopToIntSet() {
+        return loopToIntSet(bitmap);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.jedis.JedisHelper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+
+/**
+ * {@link JedisHelper#pipeline} of {@code GET}s at different partition sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PipelineBenchmark extends AbstractRedisBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int partitionSize;
+
+    @Param({ "10000" })
+    private int keyCount;
+
+    private JedisHelper<Pipeline, Jedis> helper;
+    private List<String> keys;
+
+    @Setup
+    public void setup() throws IOException {
+        startRedis();
+        helper = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(partitionSize) //
+                .build();
+        keys = IntStream.range(0, keyCount).mapToObj(i -> "pipeline_benchmark_" + i)
+                .collect(toList());
+        helper.pipeline(keys, (p, key) -> p.set(key, key));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stopRedis();
+    }
+
+    @Benchmark
+    public Map<String, String> pipelineGet() {
+        return helper.pipeline(keys, PipelineBase::get);
+    }
+}
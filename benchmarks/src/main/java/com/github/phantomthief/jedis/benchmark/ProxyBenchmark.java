@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.jedis.JedisHelper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * cost of the {@link JedisHelper#get()} proxy over borrowing a {@link Jedis} by hand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProxyBenchmark extends AbstractRedisBenchmark {
+
+    private static final String KEY = "proxy_benchmark";
+
+    private JedisCommands proxy;
+
+    @Setup
+    public void setup() throws IOException {
+        startRedis();
+        JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool).build();
+        proxy = helper.get();
+        proxy.set(KEY, "value");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stopRedis();
+    }
+
+    @Benchmark
+    public String rawGet() {
+        try (Jedis jedis = pool.getResource()) {
+            return jedis.get(KEY);
+        }
+    }
+
+    @Benchmark
+    public String proxyGet() {
+        return proxy.get(KEY);
+    }
+
+    @Benchmark
+    public String rawSet() {
+        try (Jedis jedis = pool.getResource()) {
+            return jedis.set(KEY, "value");
+        }
+    }
+
+    @Benchmark
+    public String proxySet() {
+        return proxy.set(KEY, "value");
+    }
+}
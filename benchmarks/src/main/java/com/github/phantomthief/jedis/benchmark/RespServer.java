@@ -0,0 +1,519 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * in-process stand-in for redis, with just the commands used by the benchmarks,
+ * so they run without a redis server.
+ *
+ * all data is guarded by one lock, like the single thread of redis. lua scripts are not
+ * interpreted, the bit scripts of {@code JedisHelper} are recognized by the command they call.
+ */
+public final class RespServer implements Closeable {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("resp-server-%d").setDaemon(true).build());
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, byte[]> scripts = new HashMap<>();
+
+    public RespServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, ISO_8859_1);
+    }
+
+    private static long number(byte[] bytes) {
+        return Long.parseLong(new String(bytes, ISO_8859_1));
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write('+');
+        out.write(value.getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write('-');
+        out.write(message.getBytes(UTF_8));
+        out.write(CRLF);
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write(':');
+        out.write(Long.toString(value).getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(ISO_8859_1));
+            return;
+        }
+        out.write('$');
+        out.write(Integer.toString(value.length).getBytes(ISO_8859_1));
+        out.write(CRLF);
+        out.write(value);
+        out.write(CRLF);
+    }
+
+    private static void writeArray(OutputStream out, int size) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(size).getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            } else if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read(); // \n
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return {@code null} at the end of stream
+     */
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("inline commands are not supported");
+        }
+        int size = (int) readNumber(in);
+        List<byte[]> command = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (in.read() != '$') {
+                throw new IOException("bulk string expected");
+            }
+            byte[] arg = new byte[(int) readNumber(in)];
+            int read = 0;
+            while (read < arg.length) {
+                int n = in.read(arg, read, arg.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            in.read(); // \r
+            in.read(); // \n
+            command.add(arg);
+        }
+        return command;
+    }
+
+    private static int getBit(byte[] value, long offset) {
+        int index = (int) (offset >>> 3);
+        if (value == null || index >= value.length) {
+            return 0;
+        }
+        return (value[index] >>> (7 - (offset & 7))) & 1;
+    }
+
+    private static int[] range(long start, long end, int length) {
+        if (start < 0) {
+            start = Math.max(0, start + length);
+        }
+        if (end < 0) {
+            end += length;
+        }
+        end = Math.min(end, length - 1);
+        return new int[] { (int) start, (int) end };
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream(), 1 << 16);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 1 << 16);
+            List<byte[]> command;
+            while ((command = readCommand(in)) != null) {
+                String name = string(command.get(0)).toUpperCase();
+                if ("QUIT".equals(name)) {
+                    writeSimple(out, "OK");
+                    out.flush();
+                    return;
+                }
+                synchronized (data) {
+                    try {
+                        handle(name, command, out);
+                    } catch (RuntimeException e) {
+                        writeError(out, "ERR " + e);
+                    }
+                }
+                // answer a whole pipeline at once
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // disconnected
+        }
+    }
+
+    private void handle(String name, List<byte[]> c, OutputStream out) throws IOException {
+        switch (name) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "SELECT":
+                writeSimple(out, "OK");
+                break;
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                writeSimple(out, "OK");
+                break;
+            case "GET":
+                writeBulk(out, bytes(c.get(1)));
+                break;
+            case "SET":
+                data.put(string(c.get(1)), c.get(2));
+                writeSimple(out, "OK");
+                break;
+            case "MGET":
+                writeArray(out, c.size() - 1);
+                for (int i = 1; i < c.size(); i++) {
+                    writeBulk(out, bytes(c.get(i)));
+                }
+                break;
+            case "DEL": {
+                int count = 0;
+                for (int i = 1; i < c.size(); i++) {
+                    count += data.remove(string(c.get(i))) != null ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "EXISTS": {
+                int count = 0;
+                for (int i = 1; i < c.size(); i++) {
+                    count += data.containsKey(string(c.get(i))) ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "STRLEN": {
+                byte[] value = bytes(c.get(1));
+                writeInteger(out, value == null ? 0 : value.length);
+                break;
+            }
+            case "GETBIT":
+                writeInteger(out, getBit(bytes(c.get(1)), number(c.get(2))));
+                break;
+            case "SETBIT":
+                writeInteger(out, setBit(c.get(1), number(c.get(2)), number(c.get(3)) != 0));
+                break;
+            case "BITCOUNT": {
+                byte[] value = bytes(c.get(1));
+                int count = 0;
+                if (value != null) {
+                    int[] range = c.size() > 3
+                            ? range(number(c.get(2)), number(c.get(3)), value.length)
+                            : new int[] { 0, value.length - 1 };
+                    for (int i = range[0]; i <= range[1]; i++) {
+                        count += Integer.bitCount(value[i] & 0xFF);
+                    }
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "GETRANGE": {
+                byte[] value = bytes(c.get(1));
+                if (value == null) {
+                    writeBulk(out, new byte[0]);
+                    break;
+                }
+                int[] range = range(number(c.get(2)), number(c.get(3)), value.length);
+                writeBulk(out, range[0] > range[1] ? new byte[0]
+                        : Arrays.copyOfRange(value, range[0], range[1] + 1));
+                break;
+            }
+            case "SETRANGE": {
+                String key = string(c.get(1));
+                int offset = (int) number(c.get(2));
+                byte[] patch = c.get(3);
+                byte[] value = bytes(c.get(1));
+                if (value == null || value.length < offset + patch.length) {
+                    value = Arrays.copyOf(value == null ? new byte[0] : value,
+                            offset + patch.length);
+                }
+                System.arraycopy(patch, 0, value, offset, patch.length);
+                data.put(key, value);
+                writeInteger(out, value.length);
+                break;
+            }
+            case "ZADD": {
+                SortedSet set = (SortedSet) data.computeIfAbsent(string(c.get(1)),
+                        k -> new SortedSet());
+                int added = 0;
+                for (int i = 2; i + 1 < c.size(); i += 2) {
+                    added += set.add(string(c.get(i + 1)), Double.parseDouble(string(c.get(i))));
+                }
+                writeInteger(out, added);
+                break;
+            }
+            case "ZREM": {
+                SortedSet set = (SortedSet) data.get(string(c.get(1)));
+                int removed = 0;
+                if (set != null) {
+                    for (int i = 2; i < c.size(); i++) {
+                        removed += set.remove(string(c.get(i)));
+                    }
+                    if (set.scores.isEmpty()) {
+                        data.remove(string(c.get(1)));
+                    }
+                }
+                writeInteger(out, removed);
+                break;
+            }
+            case "ZCARD": {
+                SortedSet set = (SortedSet) data.get(string(c.get(1)));
+                writeInteger(out, set == null ? 0 : set.scores.size());
+                break;
+            }
+            case "ZSCAN":
+                zscan(c, out);
+                break;
+            case "ZREVRANGE":
+                zrevrange(c, out);
+                break;
+            case "EVAL":
+            case "EVALSHA":
+            case "SCRIPT":
+                script(name, c, out);
+                break;
+            default:
+                writeError(out, "ERR unknown command '" + name + "'");
+        }
+    }
+
+    private byte[] bytes(byte[] key) {
+        Object value = data.get(string(key));
+        if (value != null && !(value instanceof byte[])) {
+            throw new IllegalStateException("WRONGTYPE");
+        }
+        return (byte[]) value;
+    }
+
+    private int setBit(byte[] key, long offset, boolean bit) {
+        byte[] value = bytes(key);
+        int index = (int) (offset >>> 3);
+        if (value == null || index >= value.length) {
+            value = Arrays.copyOf(value == null ? new byte[0] : value, index + 1);
+            data.put(string(key), value);
+        }
+        int old = getBit(value, offset);
+        int mask = 0x80 >>> (offset & 7);
+        value[index] = (byte) (bit ? value[index] | mask : value[index] & ~mask);
+        return old;
+    }
+
+    private void zscan(List<byte[]> c, OutputStream out) throws IOException {
+        SortedSet set = (SortedSet) data.get(string(c.get(1)));
+        int cursor = (int) number(c.get(2));
+        int count = 10;
+        Pattern match = null;
+        for (int i = 3; i + 1 < c.size(); i += 2) {
+            String option = string(c.get(i)).toUpperCase();
+            if ("COUNT".equals(option)) {
+                count = (int) number(c.get(i + 1));
+            } else if ("MATCH".equals(option)) {
+                match = glob(string(c.get(i + 1)));
+            }
+        }
+        String[] members = set == null ? new String[0] : set.members();
+        int end = Math.min(members.length, cursor + count);
+        List<String> page = new ArrayList<>();
+        for (int i = cursor; i < end; i++) {
+            if (match == null || match.matcher(members[i]).matches()) {
+                page.add(members[i]);
+            }
+        }
+        writeArray(out, 2);
+        writeBulk(out, Integer.toString(end < members.length ? end : 0).getBytes(ISO_8859_1));
+        writeArray(out, page.size() * 2);
+        for (String member : page) {
+            writeBulk(out, member.getBytes(ISO_8859_1));
+            writeBulk(out, Double.toString(set.scores.get(member)).getBytes(ISO_8859_1));
+        }
+    }
+
+    private void zrevrange(List<byte[]> c, OutputStream out) throws IOException {
+        SortedSet set = (SortedSet) data.get(string(c.get(1)));
+        boolean withScores = c.size() > 4;
+        List<Map.Entry<String, Double>> entries = set == null ? new ArrayList<>()
+                : new ArrayList<>(set.scores.entrySet());
+        entries.sort(Map.Entry.<String, Double> comparingByValue().reversed());
+        int[] range = range(number(c.get(2)), number(c.get(3)), entries.size());
+        int size = Math.max(0, range[1] - range[0] + 1);
+        writeArray(out, withScores ? size * 2 : size);
+        for (int i = range[0]; i <= range[1]; i++) {
+            Map.Entry<String, Double> entry = entries.get(i);
+            writeBulk(out, entry.getKey().getBytes(ISO_8859_1));
+            if (withScores) {
+                writeBulk(out, Double.toString(entry.getValue()).getBytes(ISO_8859_1));
+            }
+        }
+    }
+
+    private void script(String name, List<byte[]> c, OutputStream out) throws IOException {
+        byte[] body;
+        if ("SCRIPT".equals(name)) {
+            String sub = string(c.get(1)).toUpperCase();
+            if ("LOAD".equals(sub)) {
+                String sha = Hashing.sha1().hashBytes(c.get(2)).toString();
+                scripts.put(sha, c.get(2));
+                writeBulk(out, sha.getBytes(ISO_8859_1));
+            } else if ("EXISTS".equals(sub)) {
+                writeArray(out, c.size() - 2);
+                for (int i = 2; i < c.size(); i++) {
+                    writeInteger(out, scripts.containsKey(string(c.get(i))) ? 1 : 0);
+                }
+            } else {
+                scripts.clear();
+                writeSimple(out, "OK");
+            }
+            return;
+        } else if ("EVALSHA".equals(name)) {
+            body = scripts.get(string(c.get(1)));
+            if (body == null) {
+                writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+                return;
+            }
+        } else {
+            body = c.get(1);
+            scripts.put(Hashing.sha1().hashBytes(body).toString(), body);
+        }
+        String script = string(body);
+        int keys = (int) number(c.get(2));
+        byte[] key = c.get(3);
+        List<byte[]> argv = c.subList(3 + keys, c.size());
+        if (keys == 1 && script.contains("'GETBIT'")) {
+            writeArray(out, argv.size());
+            byte[] value = bytes(key);
+            for (byte[] offset : argv) {
+                writeInteger(out, getBit(value, number(offset)));
+            }
+        } else if (keys == 1 && script.contains("'SETBIT'")) {
+            boolean bit = number(argv.get(0)) != 0;
+            writeArray(out, argv.size() - 1);
+            for (byte[] offset : argv.subList(1, argv.size())) {
+                writeInteger(out, setBit(key, number(offset), bit));
+            }
+        } else {
+            writeError(out, "ERR script not supported by the stand-in server");
+        }
+    }
+
+    private static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char ch : glob.toCharArray()) {
+            if (ch == '*') {
+                regex.append(".*");
+            } else if (ch == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(ch)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private static final class SortedSet {
+
+        private final Map<String, Double> scores = new HashMap<>();
+        private String[] members;
+
+        int add(String member, double score) {
+            Double old = scores.put(member, score);
+            if (old == null) {
+                members = null;
+                return 1;
+            }
+            return 0;
+        }
+
+        int remove(String member) {
+            if (scores.remove(member) != null) {
+                members = null;
+                return 1;
+            }
+            return 0;
+        }
+
+        /**
+         * @return members in a stable order for cursors, until the next add or remove
+         */
+        String[] members() {
+            if (members == null) {
+                members = scores.keySet().toArray(new String[scores.size()]);
+                Arrays.sort(members);
+            }
+            return members;
+        }
+    }
+}
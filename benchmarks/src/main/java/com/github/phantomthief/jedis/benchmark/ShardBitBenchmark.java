@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.jedis.JedisHelper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * shard bits: batch get/set of random bits, count and iteration over the whole range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShardBitBenchmark extends AbstractRedisBenchmark {
+
+    private static final String PREFIX = "shard_bit_benchmark";
+
+    @Param({ "100000", "1000000" })
+    private int keyHashRange;
+
+    @Param({ "10000000" })
+    private long bitRange;
+
+    @Param({ "10000" })
+    private int bitCount;
+
+    private JedisHelper<Pipeline, Jedis> helper;
+    private long[] bits;
+
+    @Setup
+    public void setup() throws IOException {
+        startRedis();
+        helper = JedisHelper.newBuilder(() -> pool).build();
+        Random random = new Random(0);
+        bits = new long[bitCount];
+        for (int i = 0; i < bitCount; i++) {
+            bits[i] = (long) (random.nextDouble() * bitRange);
+        }
+        helper.setShardBits(bits, PREFIX, keyHashRange, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stopRedis();
+    }
+
+    @Benchmark
+    public BitSet getShardBits() {
+        return helper.getShardBits(bits, PREFIX, keyHashRange);
+    }
+
+    @Benchmark
+    public BitSet setShardBits() {
+        return helper.setShardBits(bits, PREFIX, keyHashRange, true);
+    }
+
+    @Benchmark
+    public long getShardBitCount() {
+        return helper.getShardBitCount(PREFIX, keyHashRange, 0, bitRange);
+    }
+
+    @Benchmark
+    public long iterateShardBit() {
+        return helper.iterateShardBitAsLong(PREFIX, keyHashRange, 0, bitRange).sum();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis.benchmark;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.phantomthief.jedis.JedisHelper;
+import com.github.phantomthief.jedis.JedisUtils;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * sync a large sorted set where 1% of the scores changed since the last sync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SyncSortedSetBenchmark extends AbstractRedisBenchmark {
+
+    private static final String KEY = "sync_sorted_set_benchmark";
+
+    @Param({ "10000", "100000" })
+    private int size;
+
+    private JedisHelper<Pipeline, Jedis> helper;
+    private Map<String, Double> even;
+    private Map<String, Double> odd;
+    private boolean flip;
+
+    @Setup
+    public void setup() throws IOException {
+        startRedis();
+        helper = JedisHelper.newBuilder(() -> pool).build();
+        even = new HashMap<>(size);
+        odd = new HashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            even.put("member_" + i, (double) i);
+            odd.put("member_" + i, i % 100 == 0 ? -i : (double) i);
+        }
+        helper.get().zadd(KEY, even);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stopRedis();
+    }
+
+    private Map<String, Double> next() {
+        flip = !flip;
+        return flip ? odd : even;
+    }
+
+    @Benchmark
+    public boolean syncSortedSetKey() {
+        Map<String, Double> data = next();
+        return JedisUtils.syncSortedSetKey(helper.get(), KEY, k -> k, k -> data);
+    }
+
+    @Benchmark
+    public JedisUtils.SyncResult syncSortedSetKeys() {
+        Map<String, Double> data = next();
+        return JedisUtils.syncSortedSetKeys(helper, singletonList(KEY), k -> k, k -> data);
+    }
+}
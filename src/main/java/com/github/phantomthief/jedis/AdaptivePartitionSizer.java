@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * pipeline partition size per call site, tuned so a partition takes about the target latency
+ * and its responses stay under {@link #MAX_PARTITION_RESPONSE_BYTES}.
+ *
+ * a call site is the class of the pipeline function, so every lambda or method reference
+ * in the code gets its own estimate. wrappers pipelining a function of their own pass the
+ * class of the function they wrap, or a label of their own. estimates are updated without locking,
+ * a concurrent update may be lost, which only slows down the convergence.
+ */
+final class AdaptivePartitionSizer {
+
+    /**
+     * keep redis client output buffers and our decoding of one partition reasonably small.
+     */
+    static final long MAX_PARTITION_RESPONSE_BYTES = 1 << 20;
+
+    private static final double ALPHA = 0.2;
+
+    private final long targetNanos;
+    private final int minSize;
+    private final int maxSize;
+    private final int initSize;
+    private final ConcurrentMap<Object, Site> sites = new ConcurrentHashMap<>();
+
+    AdaptivePartitionSizer(long targetNanos, int minSize, int maxSize, int initSize) {
+        checkArgument(targetNanos > 0);
+        checkArgument(minSize > 0 && minSize <= maxSize);
+        this.targetNanos = targetNanos;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.initSize = Math.max(minSize, Math.min(maxSize, initSize));
+    }
+
+    /**
+     * rough size of a response for the output buffer, not the heap.
+     */
+    static long weigh(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof Map) {
+            long weight = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                weight += weigh(entry.getKey()) + weigh(entry.getValue());
+            }
+            return weight;
+        } else if (value instanceof Collection) {
+            long weight = 0;
+            for (Object item : (Collection<?>) value) {
+                weight += weigh(item);
+            }
+            return weight;
+        } else {
+            return 8;
+        }
+    }
+
+    /**
+     * @param callSite a key stable across calls, e.g. the class of the pipeline function,
+     *        not the function itself
+     */
+    Site site(Object callSite) {
+        Site site = sites.get(callSite);
+        if (site == null) {
+            site = sites.computeIfAbsent(callSite, t -> new Site());
+        }
+        return site;
+    }
+
+    final class Site {
+
+        private volatile double nanosPerKey;
+        private volatile double bytesPerKey;
+
+        /**
+         * @return partitions sized by {@link #nextSize()} when each of them is taken
+         */
+        <K> Iterable<List<K>> partition(Iterable<K> keys) {
+            return () -> new AbstractIterator<List<K>>() {
+
+                private final Iterator<K> iterator = keys.iterator();
+
+                @Override
+                protected List<K> computeNext() {
+                    if (!iterator.hasNext()) {
+                        return endOfData();
+                    }
+                    int size = nextSize();
+                    List<K> list = new ArrayList<>(size);
+                    while (list.size() < size && iterator.hasNext()) {
+                        list.add(iterator.next());
+                    }
+                    return list;
+                }
+            };
+        }
+
+        int nextSize() {
+            double nanos = nanosPerKey;
+            if (nanos <= 0) {
+                return initSize;
+            }
+            double size = targetNanos / nanos;
+            double bytes = bytesPerKey;
+            if (bytes > 0) {
+                size = Math.min(size, MAX_PARTITION_RESPONSE_BYTES / bytes);
+            }
+            return (int) Math.max(minSize, Math.min(maxSize, size));
+        }
+
+        void record(int keys, long nanos, long bytes) {
+            if (keys <= 0) {
+                return;
+            }
+            nanosPerKey = ewma(nanosPerKey, (double) nanos / keys);
+            bytesPerKey = ewma(bytesPerKey, (double) bytes / keys);
+        }
+
+        private double ewma(double old, double sample) {
+            return old <= 0 ? sample : old + ALPHA * (sample - old);
+        }
+    }
+}
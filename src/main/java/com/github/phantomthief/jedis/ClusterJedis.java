@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static redis.clients.util.JedisClusterCRC16.getSlot;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * connections to the nodes of a redis cluster, like {@link redis.clients.jedis.ShardedJedis}
+ * with shards picked by the CRC16 hash slot of keys. a node connection is borrowed on first
+ * use and returned on {@link #close()}. not thread safe.
+ */
+public class ClusterJedis implements Closeable {
+
+    private final ClusterJedisPool pool;
+    private final Map<HostAndPort, Jedis> connections = new LinkedHashMap<>();
+
+    ClusterJedis(ClusterJedisPool pool) {
+        this.pool = pool;
+    }
+
+    public Jedis getShard(String key) {
+        return getNode(pool.getSlotNode(getSlot(key)));
+    }
+
+    public Jedis getShard(byte[] key) {
+        return getNode(pool.getSlotNode(getSlot(key)));
+    }
+
+    /**
+     * @return connections to all masters, each is borrowed when it's accessed
+     */
+    public List<Jedis> getAllShards() {
+        return Lists.transform(pool.getMasters(), this::getNode);
+    }
+
+    /**
+     * @return nodes of {@link #getAllShards()}, in the same order
+     */
+    List<HostAndPort> getMasters() {
+        return pool.getMasters();
+    }
+
+    public Jedis getNode(HostAndPort node) {
+        Jedis jedis = connections.get(node);
+        if (jedis == null) {
+            try {
+                jedis = pool.getNodePool(node).getResource();
+            } catch (JedisConnectionException e) {
+                pool.tryRefresh();
+                throw e;
+            }
+            connections.put(node, jedis);
+        }
+        return jedis;
+    }
+
+    public ClusterJedisPipeline pipelined() {
+        return new ClusterJedisPipeline(this);
+    }
+
+    /**
+     * update the slot map on {@code MOVED}, {@code ASK} leaves it as is.
+     */
+    void redirected(JedisRedirectionException e) {
+        if (e instanceof JedisMovedDataException) {
+            pool.moved(e.getSlot(), e.getTargetNode());
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Jedis jedis : connections.values()) {
+            if (jedis.getClient().isBroken()) {
+                pool.tryRefresh();
+            }
+            jedis.close();
+        }
+        connections.clear();
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+/**
+ * pipeline over the nodes of a {@link ClusterJedis}, each command goes to the node of its key.
+ * commands of all nodes are flushed before any reply is read, so nodes work concurrently.
+ *
+ * replies of {@code MOVED} update the slot map, the commands are not re-sent by the pipeline
+ * itself as it doesn't keep them. see {@link #asking(HostAndPort)} for {@code ASK}.
+ *
+ * if the pipeline fails before all replies are read, the connections written to are
+ * discarded, see {@link #discard()}.
+ */
+public class ClusterJedisPipeline extends PipelineBase {
+
+    private final ClusterJedis jedis;
+    private final Queue<Client> clients = new ArrayDeque<>();
+    private HostAndPort askingNode;
+    private HotKeyTracker hotKeys;
+
+    ClusterJedisPipeline(ClusterJedis jedis) {
+        this.jedis = jedis;
+    }
+
+    /**
+     * send following commands to {@code node} after {@code ASKING}.
+     *
+     * @param node {@code null} to route by slot again
+     */
+    public void asking(HostAndPort node) {
+        this.askingNode = node;
+    }
+
+    /**
+     * @param hotKeys {@code null} to disable
+     */
+    void setHotKeyTracker(HotKeyTracker hotKeys) {
+        this.hotKeys = hotKeys;
+    }
+
+    public void sync() {
+        Map<Client, Iterator<Object>> replies = new IdentityHashMap<>();
+        try {
+            for (Client client : clients) {
+                if (!replies.containsKey(client)) {
+                    // flush only
+                    client.getAll(Integer.MAX_VALUE);
+                    replies.put(client, null);
+                }
+            }
+            for (Map.Entry<Client, Iterator<Object>> entry : replies.entrySet()) {
+                entry.setValue(entry.getKey().getAll().iterator());
+            }
+        } catch (Throwable e) {
+            discard();
+            throw e;
+        }
+        Client client;
+        while ((client = clients.poll()) != null) {
+            Object reply = replies.get(client).next();
+            if (reply instanceof JedisRedirectionException) {
+                jedis.redirected((JedisRedirectionException) reply);
+            }
+            generateResponse(reply);
+        }
+    }
+
+    /**
+     * drop the connections with commands whose replies are not read, so they are not returned
+     * to their pools with those replies pending, e.g. when the pipeline fails before
+     * {@link #sync()}. they reconnect on their next command.
+     */
+    public void discard() {
+        Map<Client, Boolean> pending = new IdentityHashMap<>();
+        clients.forEach(client -> pending.put(client, true));
+        clients.clear();
+        pending.keySet().forEach(JedisHelper::discard);
+    }
+
+    @Override
+    protected Client getClient(String key) {
+        return getClient(() -> jedis.getShard(key), key);
+    }
+
+    @Override
+    protected Client getClient(byte[] key) {
+        return getClient(() -> jedis.getShard(key), key);
+    }
+
+    /**
+     * if the node can't be reached, commands queued before are discarded as well.
+     */
+    private Client getClient(Supplier<Jedis> shard, Object key) {
+        Client client;
+        try {
+            client = askingNode != null ? askingClient() : queue(shard.get().getClient());
+        } catch (Throwable e) {
+            discard();
+            throw e;
+        }
+        return record(client, key);
+    }
+
+    private Client record(Client client, Object key) {
+        if (hotKeys != null && hotKeys.sample()) {
+            hotKeys.record(client, "pipeline", key);
+        }
+        return client;
+    }
+
+    private Client askingClient() {
+        Client client = jedis.getNode(askingNode).getClient();
+        client.asking();
+        getResponse(BuilderFactory.STRING);
+        queue(client);
+        return queue(client);
+    }
+
+    private Client queue(Client client) {
+        clients.add(client);
+        return client;
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static redis.clients.jedis.BinaryJedisCluster.HASHSLOTS;
+import static redis.clients.util.SafeEncoder.encode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.Pool;
+
+/**
+ * a {@link JedisPool} per master of a redis cluster, with the slot map from
+ * {@code CLUSTER SLOTS}. the map is refreshed on {@code MOVED} replies and connection
+ * failures, at most once per {@link #MIN_REFRESH_INTERVAL_MILLIS}.
+ *
+ * resources are {@link ClusterJedis}, which borrow node connections on demand and return them
+ * on close. see {@link JedisHelper#newClusterBuilder}.
+ */
+public class ClusterJedisPool extends Pool<ClusterJedis> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterJedisPool.class);
+
+    private static final long MIN_REFRESH_INTERVAL_MILLIS = 100;
+
+    private final Set<HostAndPort> seeds;
+    private final GenericObjectPoolConfig poolConfig;
+    private final int timeout;
+    private final String password;
+
+    private final ConcurrentMap<HostAndPort, JedisPool> nodes = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<HostAndPort> slots = new AtomicReferenceArray<>(
+            HASHSLOTS);
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile List<HostAndPort> masters = Collections.emptyList();
+    private volatile long lastRefresh;
+    private volatile boolean closed;
+
+    public ClusterJedisPool(Set<HostAndPort> seeds) {
+        this(seeds, new GenericObjectPoolConfig(), Protocol.DEFAULT_TIMEOUT, null);
+    }
+
+    /**
+     * @param poolConfig of the pool of each node
+     * @param password {@code null} if not required
+     */
+    public ClusterJedisPool(Set<HostAndPort> seeds, GenericObjectPoolConfig poolConfig,
+            int timeout, String password) {
+        checkArgument(!seeds.isEmpty());
+        this.seeds = new LinkedHashSet<>(seeds);
+        this.poolConfig = poolConfig;
+        this.timeout = timeout;
+        this.password = password;
+        refresh();
+    }
+
+    @Override
+    public ClusterJedis getResource() {
+        checkState(!closed, "pool is closed.");
+        return new ClusterJedis(this);
+    }
+
+    @Override
+    public void close() {
+        destroy();
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        nodes.values().forEach(JedisPool::destroy);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return connections borrowed from all nodes
+     */
+    @Override
+    public int getNumActive() {
+        return nodes.values().stream().mapToInt(JedisPool::getNumActive).sum();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return nodes.values().stream().mapToInt(JedisPool::getNumIdle).sum();
+    }
+
+    /**
+     * @return sorted by host and port, so the order is stable until the slot map changes
+     */
+    public List<HostAndPort> getMasters() {
+        return masters;
+    }
+
+    public HostAndPort getSlotNode(int slot) {
+        HostAndPort node = slots.get(slot);
+        if (node == null) {
+            refresh();
+            node = slots.get(slot);
+            if (node == null) {
+                throw new JedisClusterException("no node serves slot:" + slot);
+            }
+        }
+        return node;
+    }
+
+    JedisPool getNodePool(HostAndPort node) {
+        JedisPool pool = nodes.get(node);
+        if (pool == null) {
+            pool = nodes.computeIfAbsent(node, n -> new JedisPool(poolConfig, n.getHost(),
+                    n.getPort(), timeout, password));
+        }
+        return pool;
+    }
+
+    /**
+     * the slot is served by {@code node} now, the rest of the map is refreshed as it usually
+     * moves with other slots.
+     */
+    void moved(int slot, HostAndPort node) {
+        slots.set(slot, node);
+        tryRefresh();
+    }
+
+    /**
+     * refresh unless another thread is refreshing, or it was refreshed just now.
+     */
+    void tryRefresh() {
+        if (System.nanoTime() - lastRefresh < MILLISECONDS.toNanos(MIN_REFRESH_INTERVAL_MILLIS)) {
+            return;
+        }
+        if (refreshLock.tryLock()) {
+            try {
+                refresh0();
+            } catch (JedisException e) {
+                logger.warn("fail to refresh cluster slots.", e);
+            } finally {
+                refreshLock.unlock();
+            }
+        }
+    }
+
+    private void refresh() {
+        refreshLock.lock();
+        try {
+            refresh0();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void refresh0() {
+        List<HostAndPort> candidates = new ArrayList<>(masters);
+        candidates.addAll(seeds);
+        JedisException lastException = null;
+        for (HostAndPort candidate : new LinkedHashSet<>(candidates)) {
+            try (Jedis jedis = getNodePool(candidate).getResource()) {
+                applySlots(candidate, jedis.clusterSlots());
+                lastRefresh = System.nanoTime();
+                return;
+            } catch (JedisException e) {
+                lastException = e;
+            }
+        }
+        throw new JedisConnectionException("fail to get cluster slots from:" + candidates,
+                lastException);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applySlots(HostAndPort from, List<Object> slotInfos) {
+        HostAndPort[] newSlots = new HostAndPort[HASHSLOTS];
+        for (Object slotInfo : slotInfos) {
+            List<Object> range = (List<Object>) slotInfo;
+            int start = ((Long) range.get(0)).intValue();
+            int end = ((Long) range.get(1)).intValue();
+            List<Object> master = (List<Object>) range.get(2);
+            String host = encode((byte[]) master.get(0));
+            // old versions reply an empty host for the node itself
+            HostAndPort node = new HostAndPort(host.isEmpty() ? from.getHost() : host,
+                    ((Long) master.get(1)).intValue());
+            Arrays.fill(newSlots, start, end + 1, node);
+        }
+        for (int i = 0; i < HASHSLOTS; i++) {
+            slots.set(i, newSlots[i]);
+        }
+        masters = Arrays.stream(newSlots) //
+                .filter(node -> node != null) //
+                .distinct() //
+                .sorted(comparing(HostAndPort::toString)) //
+                .collect(toList());
+        removeNodes(masters);
+    }
+
+    /**
+     * destroy pools of nodes which left the slot map, except seeds. a node is added back on
+     * demand, e.g. by {@code ASK} to a node importing its first slots.
+     */
+    private void removeNodes(List<HostAndPort> masters) {
+        Set<HostAndPort> kept = new HashSet<>(masters);
+        kept.addAll(seeds);
+        nodes.forEach((node, pool) -> {
+            if (!kept.contains(node) && nodes.remove(node, pool)) {
+                pool.destroy();
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+import static redis.clients.util.SafeEncoder.encode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * typed commands through the binary commands and pipelines of a {@link JedisHelper},
+ * keys are encoded once and values decoded right from the bytes read from redis.
+ *
+ * see {@link JedisHelper#withCodec(RedisCodec)}.
+ */
+public final class CodecCommands<P extends PipelineBase, K, V> {
+
+    private final JedisHelper<P, ?> helper;
+    private final RedisCodec<K, V> codec;
+
+    CodecCommands(JedisHelper<P, ?> helper, RedisCodec<K, V> codec) {
+        this.helper = helper;
+        this.codec = codec;
+    }
+
+    /**
+     * @return {@code null} if not exists
+     */
+    public V get(K key) {
+        return decode(helper.getBinary().get(codec.encodeKey(key)));
+    }
+
+    public void set(K key, V value) {
+        helper.getBinary().set(codec.encodeKey(key), codec.encodeValue(value));
+    }
+
+    /**
+     * @return keys not exists are absent
+     */
+    public Map<K, V> mget(Iterable<K> keys) {
+        return pipeline(keys, PipelineBase::get);
+    }
+
+    /**
+     * keys are invalidated in the near cache of the helper.
+     *
+     * @throws JedisException if any partition failed, keys of other partitions may be set
+     */
+    public void mset(Map<K, V> values) {
+        try {
+            PipelineResult<K, String> result = helper.pipelineResult(values.keySet(),
+                    (p, key) -> p.set(codec.encodeKey(key), codec.encodeValue(values.get(key))));
+            if (!result.isComplete()) {
+                throw new JedisException("fail to set " + result.getFailedKeys().size() + " of "
+                        + values.size());
+            }
+        } finally {
+            values.keySet().forEach(key -> helper.invalidateNearCache(codec.encodeKey(key)));
+        }
+    }
+
+    /**
+     * @return fields in utf-8, empty if the key not exists
+     */
+    public Map<String, V> hgetAll(K key) {
+        return decodeHash(helper.getBinary().hgetAll(codec.encodeKey(key)));
+    }
+
+    /**
+     * @return keys not exists are absent
+     */
+    public Map<K, Map<String, V>> hgetAll(Iterable<K> keys) {
+        Map<K, Map<String, V>> result = helper.pipeline(keys,
+                (p, key) -> p.hgetAll(codec.encodeKey(key)), this::decodeHash);
+        result.values().removeIf(Map::isEmpty);
+        return result;
+    }
+
+    public void hmset(K key, Map<String, V> hash) {
+        Map<byte[], byte[]> encoded = newHashMapWithExpectedSize(hash.size());
+        hash.forEach((field, value) -> encoded.put(encode(field), codec.encodeValue(value)));
+        helper.getBinary().hmset(codec.encodeKey(key), encoded);
+    }
+
+    /**
+     * pipeline any binary command with an encoded key and a value to decode, e.g.
+     * {@code pipeline(keys, (p, key) -> p.hget(key, field))}.
+     *
+     * @return keys whose value is {@code null} are absent
+     */
+    public Map<K, V> pipeline(Iterable<K> keys,
+            BiFunction<P, byte[], Response<byte[]>> function) {
+        Map<K, V> result = helper.pipeline(keys,
+                (p, key) -> function.apply(p, codec.encodeKey(key)), this::decode,
+                function.getClass());
+        result.values().removeIf(value -> value == null);
+        return result;
+    }
+
+    private V decode(byte[] bytes) {
+        return bytes == null ? null : codec.decodeValue(bytes);
+    }
+
+    private Map<String, V> decodeHash(Map<byte[], byte[]> hash) {
+        Map<String, V> result = new HashMap<>(hash.size() * 4 / 3 + 1);
+        hash.forEach((field, value) -> result.put(encode(field), codec.decodeValue(value)));
+        return result;
+    }
+}
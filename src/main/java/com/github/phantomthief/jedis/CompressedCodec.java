@@ -0,0 +1,142 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Arrays.copyOfRange;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * see {@link RedisCodec#compressed(RedisCodec, int)}.
+ *
+ * a plain value is {@code [0][bytes]}, a compressed one {@code [1][length, 4 bytes][deflated]}.
+ * deflaters and inflaters are reused from small pools, see {@link #POOLED}.
+ */
+final class CompressedCodec<K, V> implements RedisCodec<K, V> {
+
+    private static final byte PLAIN = 0;
+    private static final byte DEFLATED = 1;
+    private static final int HEADER = 5;
+    /**
+     * the most deflate can compress, by zlib's technical details
+     */
+    private static final int MAX_RATIO = 1032;
+
+    /**
+     * idle deflaters and inflaters kept of each. extra ones are ended after use, so their
+     * native zlib memory is freed at once instead of on finalization, and no thread holds one
+     * it may never use again.
+     */
+    private static final int POOLED = Runtime.getRuntime().availableProcessors() * 2;
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOLED);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOLED);
+
+    private final RedisCodec<K, V> codec;
+    private final int minSize;
+
+    CompressedCodec(RedisCodec<K, V> codec, int minSize) {
+        checkArgument(minSize >= 0);
+        this.codec = checkNotNull(codec);
+        this.minSize = minSize;
+    }
+
+    @Override
+    public byte[] encodeKey(K key) {
+        return codec.encodeKey(key);
+    }
+
+    @Override
+    public byte[] encodeValue(V value) {
+        byte[] bytes = codec.encodeValue(value);
+        if (bytes.length >= minSize) {
+            Deflater deflater = DEFLATERS.poll();
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            try {
+                deflater.setInput(bytes);
+                deflater.finish();
+                // not worth it if it doesn't save anything
+                byte[] result = new byte[bytes.length];
+                int length = HEADER;
+                while (!deflater.finished() && length < result.length) {
+                    length += deflater.deflate(result, length, result.length - length);
+                }
+                if (deflater.finished() && length < result.length) {
+                    result[0] = DEFLATED;
+                    result[1] = (byte) (bytes.length >>> 24);
+                    result[2] = (byte) (bytes.length >>> 16);
+                    result[3] = (byte) (bytes.length >>> 8);
+                    result[4] = (byte) bytes.length;
+                    return copyOfRange(result, 0, length);
+                }
+            } finally {
+                deflater.reset();
+                if (!DEFLATERS.offer(deflater)) {
+                    deflater.end();
+                }
+            }
+        }
+        byte[] result = new byte[bytes.length + 1];
+        result[0] = PLAIN;
+        System.arraycopy(bytes, 0, result, 1, bytes.length);
+        return result;
+    }
+
+    @Override
+    public V decodeValue(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new JedisDataException("invalid compressed value: empty");
+        }
+        if (bytes[0] == PLAIN) {
+            return codec.decodeValue(bytes, 1, bytes.length - 1);
+        }
+        if (bytes[0] != DEFLATED || bytes.length < HEADER) {
+            throw new JedisDataException("invalid compressed value, marker:" + bytes[0]);
+        }
+        int length = (bytes[1] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 8
+                | (bytes[4] & 0xFF);
+        // only values which got smaller are deflated, check before allocating
+        if (length <= bytes.length || length > (long) (bytes.length - HEADER) * MAX_RATIO) {
+            throw new JedisDataException("invalid compressed value, length:" + length
+                    + ", compressed:" + bytes.length);
+        }
+        byte[] result = new byte[length];
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(bytes, HEADER, bytes.length - HEADER);
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(result, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new JedisDataException("invalid compressed value, length:" + read
+                        + ", expected:" + length);
+            }
+        } catch (DataFormatException e) {
+            throw new JedisDataException(e);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+        return codec.decodeValue(result);
+    }
+}
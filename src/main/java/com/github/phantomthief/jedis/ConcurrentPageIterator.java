@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.propagate;
+import static java.util.Collections.emptyIterator;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.Closeable;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * merge pages produced concurrently by several producers into one lazily consumed iterator.
+ *
+ * at most {@code capacity} pages are buffered, producers wait when it's full. closing the
+ * iterator, or failing with a producer's exception, cancels all producers: they stop at
+ * their next page. producers only keep a weak reference to the iterator, so an iterator
+ * dropped without closing cancels them too, once it's collected.
+ */
+final class ConcurrentPageIterator<T> implements Iterator<T>, Closeable {
+
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final Pages pages;
+    private int running;
+    private Iterator<T> current = emptyIterator();
+
+    ConcurrentPageIterator(int capacity) {
+        checkArgument(capacity > 0);
+        this.pages = new Pages(capacity);
+    }
+
+    /**
+     * @return stream of all pages, which cancels the producers on close.
+     */
+    static <T> Stream<T> stream(List<Producer<T>> producers, int capacity, Executor executor) {
+        ConcurrentPageIterator<T> iterator = new ConcurrentPageIterator<>(capacity);
+        iterator.start(producers, executor);
+        return StreamSupport.stream(spliteratorUnknownSize(iterator, NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    void start(List<Producer<T>> producers, Executor executor) {
+        running = producers.size();
+        // tasks must not reach this iterator but by the weak reference
+        Pages pages = this.pages;
+        Reference<ConcurrentPageIterator<T>> owner = new WeakReference<>(this);
+        for (Producer<T> producer : producers) {
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                try {
+                    producer.produce(page -> pages.offer(page, owner));
+                    pages.offer(END, owner);
+                } catch (InterruptedException e) {
+                    // cancelled
+                } catch (Throwable e) {
+                    try {
+                        pages.offer(e, owner);
+                    } catch (InterruptedException ie) {
+                        // cancelled
+                    }
+                }
+                return null;
+            });
+            pages.tasks.add(task);
+        }
+        pages.tasks.forEach(executor::execute);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (running == 0 || pages.cancelled) {
+                return false;
+            }
+            Object page;
+            try {
+                page = pages.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw propagate(e);
+            }
+            if (page == END) {
+                running--;
+            } else if (page instanceof Throwable) {
+                close();
+                throw propagate((Throwable) page);
+            } else {
+                current = ((List<T>) page).iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        pages.cancel();
+    }
+
+    /**
+     * state shared by the iterator and its producers.
+     */
+    private static final class Pages {
+
+        private final BlockingQueue<Object> queue;
+        private final List<FutureTask<Void>> tasks = new ArrayList<>();
+        private volatile boolean cancelled;
+
+        Pages(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * wait for room, giving up once cancelled or the iterator is collected.
+         *
+         * @return {@code false} if cancelled
+         */
+        boolean offer(Object page, Reference<?> owner) throws InterruptedException {
+            while (!cancelled) {
+                if (queue.offer(page, OFFER_TIMEOUT_MILLIS, MILLISECONDS)) {
+                    return !cancelled;
+                }
+                if (owner.get() == null) {
+                    cancel();
+                }
+            }
+            return false;
+        }
+
+        /**
+         * producers may run on a shared executor, so they are not interrupted, they see the
+         * flag at their next page instead.
+         */
+        void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                tasks.forEach(task -> task.cancel(false));
+                queue.clear();
+            }
+        }
+    }
+
+    interface Producer<T> {
+
+        /**
+         * @param sink accepts the next page, returns {@code false} if the consumer was closed
+         */
+        void produce(PageSink<T> sink) throws Exception;
+    }
+
+    interface PageSink<T> {
+
+        boolean put(List<T> page) throws InterruptedException;
+    }
+}
@@ -0,0 +1,465 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Comparator.comparingLong;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static redis.clients.util.SafeEncoder.encode;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.HostAndPort;
+
+import redis.clients.jedis.Client;
+
+/**
+ * the most frequently accessed keys per redis host and command, in a sliding time window,
+ * see {@link JedisHelper.Builder#enableHotKeyTracking(HotKeyTracker)}.
+ *
+ * one in {@code sampleRate} accesses is counted in a count-min sketch of
+ * {@link #SUB_WINDOWS} rotating sub-windows, keyed by (host, command, key), so counting takes
+ * a few atomic increments without locking, and memory is fixed whatever the number of keys.
+ * keys estimated above the least of the top ones become candidates of a bounded top-K set,
+ * which is the only place locked, and only when a new key enters it.
+ *
+ * commands in pipelines are reported as {@code pipeline}, as the pipeline only sees keys.
+ */
+public final class HotKeyTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotKeyTracker.class);
+
+    private static final int DEPTH = 4;
+    private static final int SUB_WINDOWS = 4;
+
+    private final int sampleRate;
+    private final long subWindowNanos;
+    private final int width;
+    private final int topK;
+    private final double threshold;
+    private final Consumer<HotKey> listener;
+
+    private final AtomicLongArray[] sketches = new AtomicLongArray[SUB_WINDOWS];
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong epoch = new AtomicLong();
+    private final ConcurrentMap<Candidate, Candidate> candidates = new ConcurrentHashMap<>();
+    /**
+     * open addressing copy of {@link #candidates} by hash, so tracked keys are looked up
+     * without allocating. rebuilt under the lock whenever candidates change.
+     */
+    private volatile Candidate[] index;
+    private volatile long admission;
+
+    private HotKeyTracker(Builder builder) {
+        this.sampleRate = builder.sampleRate;
+        this.subWindowNanos = Math.max(1, builder.windowNanos / SUB_WINDOWS);
+        this.width = Integer.highestOneBit(builder.sketchWidth - 1) << 1;
+        this.topK = builder.topK;
+        this.threshold = builder.threshold;
+        this.listener = builder.listener;
+        for (int i = 0; i < SUB_WINDOWS; i++) {
+            sketches[i] = new AtomicLongArray(DEPTH * width);
+        }
+        // at most half full
+        this.index = new Candidate[Integer.highestOneBit(topK * 2 - 1) << 1];
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return {@code true} if this access should be {@link #record}ed
+     */
+    boolean sample() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    void record(Client client, String command, Object key) {
+        record(JedisMetrics.host(client), command, key);
+    }
+
+    /**
+     * count a sampled access, see {@link #sample()}.
+     *
+     * @param key ignored if it's neither a {@code String} nor a {@code byte[]}
+     */
+    void record(HostAndPort host, String command, Object key) {
+        String keyString;
+        if (key instanceof String) {
+            keyString = (String) key;
+        } else if (key instanceof byte[]) {
+            keyString = encode((byte[]) key);
+        } else {
+            return;
+        }
+        if (host == null) {
+            host = JedisMetrics.UNKNOWN_HOST;
+        }
+        long now = System.nanoTime();
+        long currentEpoch = rotate(now);
+        AtomicLongArray sketch = sketches[(int) (currentEpoch % SUB_WINDOWS)];
+        long hash = hash(host, command, keyString);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long count = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(i, h1, h2);
+            sketch.incrementAndGet(index);
+            count = Math.min(count, windowCount(index));
+        }
+        if (count < admission) {
+            return;
+        }
+        Candidate candidate = find(host, command, keyString, h1, h2);
+        if (candidate != null) {
+            candidate.count = count;
+        } else {
+            candidate = new Candidate(host, command, keyString, h1, h2);
+            if (!admit(candidate, count)) {
+                return;
+            }
+        }
+        if (listener != null && rate(count, now) >= threshold) {
+            long reported = candidate.reportedEpoch.get();
+            if (reported + SUB_WINDOWS <= currentEpoch
+                    && candidate.reportedEpoch.compareAndSet(reported, currentEpoch)) {
+                try {
+                    listener.accept(candidate.toHotKey(count * sampleRate, rate(count, now)));
+                } catch (Throwable e) {
+                    logger.error("", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return top keys of the window with their estimated access count, most accessed first
+     */
+    public List<HotKey> snapshot() {
+        long now = System.nanoTime();
+        rotate(now);
+        return candidates.keySet().stream() //
+                .peek(candidate -> candidate.count = estimate(candidate)) //
+                .filter(candidate -> candidate.count > 0) //
+                .sorted(comparingLong((Candidate candidate) -> candidate.count).reversed()) //
+                .map(candidate -> candidate.toHotKey(candidate.count * sampleRate,
+                        rate(candidate.count, now))) //
+                .collect(toList());
+    }
+
+    private synchronized boolean admit(Candidate candidate, long count) {
+        if (candidates.size() >= topK) {
+            Candidate least = least();
+            if (least == null || least.count >= count) {
+                return false;
+            }
+            candidates.remove(least);
+        }
+        candidate.count = count;
+        candidates.put(candidate, candidate);
+        updateAdmission();
+        return true;
+    }
+
+    private Candidate find(HostAndPort host, String command, String key, int h1, int h2) {
+        Candidate[] table = index;
+        int mask = table.length - 1;
+        for (int i = h1 & mask;; i = (i + 1) & mask) {
+            Candidate candidate = table[i];
+            if (candidate == null) {
+                return null;
+            }
+            if (candidate.h1 == h1 && candidate.h2 == h2 && candidate.key.equals(key)
+                    && candidate.command.equals(command) && candidate.host.equals(host)) {
+                return candidate;
+            }
+        }
+    }
+
+    private Candidate least() {
+        Candidate least = null;
+        for (Candidate candidate : candidates.keySet()) {
+            if (least == null || candidate.count < least.count) {
+                least = candidate;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * after candidates changed, with the lock held.
+     */
+    private void updateAdmission() {
+        Candidate least = candidates.size() < topK ? null : least();
+        admission = least == null ? 0 : least.count;
+        Candidate[] table = new Candidate[index.length];
+        int mask = table.length - 1;
+        for (Candidate candidate : candidates.keySet()) {
+            int i = candidate.h1 & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = candidate;
+        }
+        index = table;
+    }
+
+    /**
+     * move to the sub-window of {@code now}, clearing the ones left behind.
+     *
+     * @return the current sub-window
+     */
+    private long rotate(long now) {
+        long current = (now - startNanos) / subWindowNanos;
+        long last = epoch.get();
+        if (current > last && epoch.compareAndSet(last, current)) {
+            for (long e = Math.max(last + 1, current - SUB_WINDOWS + 1); e <= current; e++) {
+                AtomicLongArray sketch = sketches[(int) (e % SUB_WINDOWS)];
+                for (int i = 0; i < sketch.length(); i++) {
+                    sketch.set(i, 0);
+                }
+            }
+            synchronized (this) {
+                candidates.keySet().removeIf(candidate -> {
+                    candidate.count = estimate(candidate);
+                    return candidate.count == 0;
+                });
+                updateAdmission();
+            }
+        }
+        return current;
+    }
+
+    private long estimate(Candidate candidate) {
+        long count = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            count = Math.min(count, windowCount(index(i, candidate.h1, candidate.h2)));
+        }
+        return count;
+    }
+
+    private long windowCount(int index) {
+        long sum = 0;
+        for (AtomicLongArray sketch : sketches) {
+            sum += sketch.get(index);
+        }
+        return sum;
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    /**
+     * @return accesses per second over the part of the window passed
+     */
+    private double rate(long sampledCount, long now) {
+        long elapsed = now - startNanos;
+        long covered = Math.min(elapsed,
+                (SUB_WINDOWS - 1) * subWindowNanos + elapsed % subWindowNanos);
+        return (double) sampledCount * sampleRate * SECONDS.toNanos(1) / Math.max(1, covered);
+    }
+
+    private static long hash(HostAndPort host, String command, String key) {
+        long hash = key.hashCode();
+        hash = hash * 31 + command.hashCode();
+        hash = hash * 31 + host.hashCode();
+        // murmur3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Candidate {
+
+        private final HostAndPort host;
+        private final String command;
+        private final String key;
+        private final int h1;
+        private final int h2;
+        private final AtomicLong reportedEpoch = new AtomicLong(-SUB_WINDOWS);
+        private volatile long count;
+
+        Candidate(HostAndPort host, String command, String key, int h1, int h2) {
+            this.host = host;
+            this.command = command;
+            this.key = key;
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        HotKey toHotKey(long count, double rate) {
+            return new HotKey(host, command, key, count, rate);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Candidate)) {
+                return false;
+            }
+            Candidate other = (Candidate) obj;
+            return key.equals(other.key) && command.equals(other.command)
+                    && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return h1;
+        }
+    }
+
+    public static final class HotKey {
+
+        private final HostAndPort host;
+        private final String command;
+        private final String key;
+        private final long count;
+        private final double rate;
+
+        private HotKey(HostAndPort host, String command, String key, long count, double rate) {
+            this.host = host;
+            this.command = command;
+            this.key = key;
+            this.count = count;
+            this.rate = rate;
+        }
+
+        /**
+         * @return {@link JedisMetrics#UNKNOWN_HOST} if the command was not bound to a host
+         */
+        public HostAndPort getHost() {
+            return host;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return binary keys are decoded in utf-8
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return estimated accesses in the window, sampling scaled back
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return estimated accesses per second
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        @Override
+        public String toString() {
+            return host + " " + command + " " + key + ": " + count + " (" + (long) rate + "/s)";
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof HotKey)) {
+                return false;
+            }
+            HotKey other = (HotKey) obj;
+            return key.equals(other.key) && command.equals(other.command)
+                    && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, command, key);
+        }
+    }
+
+    public static final class Builder {
+
+        private int sampleRate = 16;
+        private long windowNanos = SECONDS.toNanos(10);
+        private int topK = 32;
+        private int sketchWidth = 2048;
+        private double threshold;
+        private Consumer<HotKey> listener;
+
+        /**
+         * count one in {@code rate} accesses, default to 16.
+         */
+        public Builder sampleOneIn(int rate) {
+            checkArgument(rate > 0);
+            this.sampleRate = rate;
+            return this;
+        }
+
+        /**
+         * default to 10 seconds.
+         */
+        public Builder window(long window, TimeUnit unit) {
+            checkArgument(window > 0);
+            this.windowNanos = unit.toNanos(window);
+            return this;
+        }
+
+        /**
+         * keys kept in {@link HotKeyTracker#snapshot()}, default to 32.
+         */
+        public Builder topK(int topK) {
+            checkArgument(topK > 0);
+            this.topK = topK;
+            return this;
+        }
+
+        /**
+         * counters per row of the sketch, rounded up to a power of two, default to 2048.
+         * more counters make estimates of less frequent keys closer.
+         */
+        public Builder sketchWidth(int width) {
+            checkArgument(width > 1 && width <= 1 << 24);
+            this.sketchWidth = width;
+            return this;
+        }
+
+        /**
+         * call {@code listener} when a top key is estimated over {@code accessesPerSecond},
+         * at most once per window for each key. it runs on the thread of the command,
+         * so hand it over to another thread if it's not cheap.
+         */
+        public Builder onHotKey(double accessesPerSecond, Consumer<HotKey> listener) {
+            checkArgument(accessesPerSecond > 0);
+            this.threshold = accessesPerSecond;
+            this.listener = checkNotNull(listener);
+            return this;
+        }
+
+        public HotKeyTracker build() {
+            return new HotKeyTracker(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HotKeyTracker" + snapshot();
+    }
+}
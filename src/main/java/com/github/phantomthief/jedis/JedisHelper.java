@@ -4,43 +4,108 @@
 package com.github.phantomthief.jedis;
 
 import static com.github.phantomthief.util.MoreSuppliers.lazy;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Throwables.propagate;
 import static com.google.common.collect.Iterables.partition;
+import static com.google.common.collect.Maps.immutableEntry;
 import static com.google.common.collect.Maps.newHashMapWithExpectedSize;
+import static java.lang.Boolean.TRUE;
+import static java.lang.Long.MIN_VALUE;
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.lang.invoke.MethodHandles.publicLookup;
+import static java.lang.invoke.MethodType.methodType;
 import static java.lang.reflect.Proxy.newProxyInstance;
+import static java.util.Arrays.copyOfRange;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.Spliterator.DISTINCT;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
 import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.StreamSupport.longStream;
+import static redis.clients.jedis.Protocol.toByteArray;
+import static redis.clients.util.SafeEncoder.encode;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongCollection;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.LongObjectMap;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
 import com.github.phantomthief.util.CursorIteratorEx;
 import com.github.phantomthief.util.ThrowableBiConsumer;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import redis.clients.jedis.BasicCommands;
 import redis.clients.jedis.BinaryJedis;
 import redis.clients.jedis.BinaryJedisCommands;
 import redis.clients.jedis.BinaryShardedJedis;
+import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCommands;
 import redis.clients.jedis.JedisPool;
@@ -53,6 +118,11 @@ import redis.clients.jedis.ShardedJedis;
 import redis.clients.jedis.ShardedJedisPipeline;
 import redis.clients.jedis.ShardedJedisPool;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
 import redis.clients.util.Pool;
 
 /**
@@ -73,16 +143,66 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
     public static final String MILLISECONDS = "PX";
 
     private static final String PIPELINE = "pipeline";
+    private static final String AUTO_BATCH = "autoBatch";
+    /**
+     * not auto batched, as they would block all commands batched with them
+     */
+    private static final Set<String> BLOCKING_COMMANDS = ImmutableSet.of("blpop", "brpop",
+            "brpoplpush", "subscribe", "psubscribe");
+    private static final String GET = "get";
+    private static final String SCAN = "scan";
+    private static final String EVALSHA = "evalsha";
+    private static final String NO_SCRIPT = "NOSCRIPT";
     private final static int PARTITION_SIZE = 100;
+    private static final int SHARD_BITS_PER_COMMAND = 1000;
+    private static final int SCAN_PAGES_PER_SHARD = 2;
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final int MAX_REDIRECTIONS = 5;
+    /**
+     * the default max connections of a jedis pool
+     */
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final Object[] EMPTY_ARGS = {};
+    private static final MethodType INVOKER_TYPE = methodType(Object.class, Object.class,
+            Object[].class);
+    private static final ConcurrentMap<Method, MethodHandle> INVOKERS = new ConcurrentHashMap<>();
+    /**
+     * set while a task of the helper runs on an executor, see {@link #supplyAsyncNested}.
+     */
+    private static final ThreadLocal<Boolean> ON_EXECUTOR = new ThreadLocal<>();
+    private static final Supplier<ScheduledExecutorService> HEDGE_TIMER = lazy(
+            () -> newSingleThreadScheduledExecutor(new ThreadFactoryBuilder() //
+                    .setNameFormat("jedis-helper-hedge") //
+                    .setDaemon(true) //
+                    .build()));
     private final Supplier<Object> poolFactory;
     private final BiConsumer<Object, Throwable> exceptionHandler;
     private final int pipelinePartitionSize;
+    private final AdaptivePartitionSizer partitionSizer;
+    private final int pipelineParallelism;
+    private final Executor pipelineExecutor;
+    private final int pipelineRetryAttempts;
+    private final long pipelineRetryBudgetNanos;
+    private final double hedgePercentile;
+    private final ConcurrentMap<Object, LatencyTracker> hedgeTrackers = //
+            new ConcurrentHashMap<>();
+    private final Executor asyncExecutor;
+    private final int scanPrefetch;
 
     private final Supplier<Object> stopWatchStart;
     private final Consumer<StopTheWatch<Object>> stopWatchStop;
 
     private final Class<?> jedisType;
     private final Class<?> binaryJedisType;
+    private final Class<?> pipelineType;
+    private final AutoBatcher autoBatcher;
+    private final NearCache nearCache;
+    private final JedisMetrics metrics;
+    private final HotKeyTracker hotKeys;
+    /**
+     * whether the host of a command is used, by the profiler, metrics or hot key tracking
+     */
+    private final boolean recordsHosts;
 
     private final Supplier<BasicCommands> basicCommandsSupplier = lazy(this::getBasic0);
     private final Supplier<JedisCommands> jedisCommandsSupplier = lazy(this::get0);
@@ -92,17 +212,48 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
     private JedisHelper(Supplier<Object> poolFactory, //
             BiConsumer<Object, Throwable> handler, //
             int pipelinePartitionSize, //
+            AdaptivePartitionSizer partitionSizer, //
+            int pipelineParallelism, //
+            Executor pipelineExecutor, //
+            int pipelineRetryAttempts, //
+            long pipelineRetryBudgetNanos, //
+            double hedgePercentile, //
+            Executor asyncExecutor, //
+            int scanPrefetch, //
             Class<?> jedisType, //
             Class<?> binaryJedisType, //
+            Class<?> pipelineType, //
+            long autoBatchMaxDelayNanos, //
+            int autoBatchMaxSize, //
+            int autoBatchMaxFlushes, //
+            NearCache nearCache, //
+            JedisMetrics metrics, //
+            HotKeyTracker hotKeys, //
             Supplier<Object> stopWatchStart, //
             Consumer<StopTheWatch<Object>> stopWatchStop) {
         this.poolFactory = poolFactory;
         this.exceptionHandler = handler;
         this.pipelinePartitionSize = pipelinePartitionSize;
+        this.partitionSizer = partitionSizer;
+        this.pipelineParallelism = pipelineParallelism;
+        this.pipelineExecutor = pipelineExecutor;
+        this.pipelineRetryAttempts = pipelineRetryAttempts;
+        this.pipelineRetryBudgetNanos = pipelineRetryBudgetNanos;
+        this.hedgePercentile = hedgePercentile;
+        this.asyncExecutor = asyncExecutor;
+        this.scanPrefetch = scanPrefetch;
         this.jedisType = jedisType;
         this.binaryJedisType = binaryJedisType;
+        this.pipelineType = pipelineType;
+        this.autoBatcher = autoBatchMaxSize > 0
+                ? new AutoBatcher(autoBatchMaxDelayNanos, autoBatchMaxSize, autoBatchMaxFlushes)
+                : null;
+        this.nearCache = nearCache;
+        this.metrics = metrics;
+        this.hotKeys = hotKeys;
         this.stopWatchStart = stopWatchStart;
         this.stopWatchStop = stopWatchStop;
+        this.recordsHosts = stopWatchStop != null || metrics != null || hotKeys != null;
     }
 
     public static String getShardBitKey(long bit, String keyPrefix, int keyHashRange) {
@@ -125,6 +276,23 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         builder.poolFactory = (Supplier) poolFactory;
         builder.jedisType = ShardedJedis.class;
         builder.binaryJedisType = BinaryShardedJedis.class;
+        builder.pipelineType = ShardedJedisPipeline.class;
+        return builder;
+    }
+
+    /**
+     * for redis cluster, commands and pipelines are routed by the hash slot of keys.
+     * commands without keys run on any master.
+     */
+    @SuppressWarnings("unchecked")
+    public static Builder<ClusterJedisPipeline, ClusterJedis, ClusterJedisPool>
+            newClusterBuilder(Supplier<ClusterJedisPool> poolFactory) {
+        Builder<ClusterJedisPipeline, ClusterJedis, ClusterJedisPool> builder = new Builder<>();
+        builder.poolFactory = (Supplier) poolFactory;
+        // commands run on the jedis of the node
+        builder.jedisType = Jedis.class;
+        builder.binaryJedisType = BinaryJedis.class;
+        builder.pipelineType = ClusterJedisPipeline.class;
         return builder;
     }
 
@@ -134,57 +302,873 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         builder.poolFactory = (Supplier) poolFactory;
         builder.jedisType = Jedis.class;
         builder.binaryJedisType = BinaryJedis.class;
+        builder.pipelineType = Pipeline.class;
         return builder;
     }
 
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
     public <K, V> Map<K, V> pipeline(Iterable<K> keys, BiFunction<P, K, Response<V>> function) {
         return pipeline(keys, function, identity());
     }
 
+    /**
+     * send commands of {@code keys} in partitions of {@link Builder#withPipelinePartitionSize},
+     * each on a pooled connection.
+     *
+     * {@code function} queues the command of a key, and {@code decoder} converts its reply,
+     * both are called for a partition on the thread running it. that's the calling thread by
+     * default, but with {@link Builder#enableParallelPipeline} partitions run on the executor,
+     * so both are called from several threads at the same time, and must be thread safe and
+     * free of side effects depending on order. {@link #hedgedPipeline} may also call them twice
+     * for a key.
+     *
+     * @return keys of failed partitions are absent
+     */
     public <K, V, T> Map<K, T> pipeline(Iterable<K> keys, BiFunction<P, K, Response<V>> function,
             Function<V, T> decoder) {
+        return pipeline(keys, function, decoder, function.getClass());
+    }
+
+    /**
+     * same as {@link #pipeline(Iterable, BiFunction, Function)}, for wrappers pipelining a
+     * function of their own, which would merge all their callers into one call site.
+     *
+     * @param callSite key of adaptive partitioning, see {@link AdaptivePartitionSizer#site}
+     */
+    <K, V, T> Map<K, T> pipeline(Iterable<K> keys, BiFunction<P, K, Response<V>> function,
+            Function<V, T> decoder, Object callSite) {
+        return pipeline(keys, function, decoder, false, false, callSite).getResults();
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> PipelineResult<K, V> pipelineResult(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function) {
+        return pipelineResult(keys, function, identity());
+    }
+
+    /**
+     * same as {@link #pipeline(Iterable, BiFunction, Function)}, also reporting the keys of
+     * partitions which still failed after the retries of {@link Builder#withPipelineRetry}.
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V, T> PipelineResult<K, T> pipelineResult(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+        return pipeline(keys, function, decoder, false, false, function.getClass());
+    }
+
+    /**
+     * same as {@link #pipelineResult(Iterable, BiFunction, Function)}. if {@code idempotent},
+     * i.e. commands of {@code function} may run twice, e.g. reads, a partition whose
+     * connection broke after sending, by a reset or a timeout, is also retried within
+     * {@link Builder#withPipelineRetry}.
+     */
+    public <K, V, T> PipelineResult<K, T> pipelineResult(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            boolean idempotent) {
+        return pipeline(keys, function, decoder, false, idempotent, function.getClass());
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> PipelineResult<K, V> hedgedPipeline(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function) {
+        return hedgedPipeline(keys, function, identity());
+    }
+
+    /**
+     * for reads only: a partition not synced within the {@link Builder#withHedgePercentile}
+     * latency of recent hedged partitions of the same {@code function} (by its class, like
+     * adaptive partitioning) is sent again on another connection, and whichever succeeds
+     * first wins. as for an idempotent {@link #pipelineResult(Iterable, BiFunction, Function,
+     * boolean)}, a partition whose connection broke is retried.
+     *
+     * partitions run on the async executor, and {@code function} and {@code decoder} of a
+     * hedged partition are called on both attempts, concurrently.
+     */
+    public <K, V, T> PipelineResult<K, T> hedgedPipeline(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+        return pipeline(keys, function, decoder, true, true, function.getClass());
+    }
+
+    private <K, V, T> PipelineResult<K, T> pipeline(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder, boolean hedged,
+            boolean idempotent, Object callSite) {
+        if (keys == null) {
+            return new PipelineResult<>(new HashMap<>(), new ArrayList<>());
+        }
+        AdaptivePartitionSizer.Site site = partitionSizer == null ? null
+                : partitionSizer.site(callSite);
+        Iterable<List<K>> partition = site == null ? partition(keys, pipelinePartitionSize)
+                : site.partition(keys);
+        long deadline = System.nanoTime() + pipelineRetryBudgetNanos;
+        if (hedged) {
+            LatencyTracker tracker = hedgeTracker(callSite);
+            return runPartitions(keys, partition,
+                    list -> hedgedPartition(list, function, decoder, site, tracker, deadline));
+        }
+        return runPartitions(keys, partition, partitionTask(
+                list -> retryPartition(list, function, decoder, site, deadline, idempotent)));
+    }
+
+    /**
+     * @return latencies of hedged partitions of a call site, so a slow command doesn't set
+     *         the threshold of a fast one
+     */
+    private LatencyTracker hedgeTracker(Object callSite) {
+        LatencyTracker tracker = hedgeTrackers.get(callSite);
+        if (tracker == null) {
+            tracker = hedgeTrackers.computeIfAbsent(callSite,
+                    t -> new LatencyTracker(hedgePercentile));
+        }
+        return tracker;
+    }
+
+    /**
+     * run {@code task} on {@code executor}, pipelines called by it run their partitions on the
+     * same thread, so a bounded executor never waits for tasks queued behind its own threads,
+     * e.g. when the async and the pipeline executors are the same.
+     */
+    private static <T> CompletableFuture<T> supplyAsyncNested(Supplier<T> task,
+            Executor executor) {
+        return supplyAsync(() -> {
+            if (onExecutor()) {
+                return task.get();
+            }
+            ON_EXECUTOR.set(TRUE);
+            try {
+                return task.get();
+            } finally {
+                ON_EXECUTOR.remove();
+            }
+        }, executor);
+    }
+
+    private static boolean onExecutor() {
+        return ON_EXECUTOR.get() != null;
+    }
+
+    /**
+     * @param task {@code null} result if the partition failed
+     */
+    private <K, T> Function<List<K>, CompletableFuture<Map<K, T>>>
+            partitionTask(Function<List<K>, Map<K, T>> task) {
+        if (pipelineParallelism > 1 && !onExecutor()) {
+            return list -> supplyAsyncNested(() -> task.apply(list), pipelineExecutor);
+        } else {
+            return list -> completedFuture(task.apply(list));
+        }
+    }
+
+    private <K, T> PipelineResult<K, T> runPartitions(Iterable<K> keys,
+            Iterable<List<K>> partition, Function<List<K>, CompletableFuture<Map<K, T>>> task) {
         int size;
-        if (keys != null && keys instanceof Collection) {
+        if (keys instanceof Collection) {
             size = ((Collection<K>) keys).size();
         } else {
             size = 16;
         }
         Map<K, T> result = newHashMapWithExpectedSize(size);
-        if (keys != null) {
-            Iterable<List<K>> partition = partition(keys, pipelinePartitionSize);
-            for (List<K> list : partition) {
-                Object pool = poolFactory.get();
-                HostAndPort jedisInfo = null;
-                Object stopWatch = stopWatchStart();
-                try (J jedis = getJedis(pool)) {
-                    jedisInfo = getJedisInfo(jedis);
-                    P pipeline = pipeline(jedis);
-                    Map<K, Response<V>> thisMap = new HashMap<>(list.size());
-                    for (K key : list) {
-                        Response<V> apply = function.apply(pipeline, key);
-                        if (apply != null) {
-                            thisMap.put(key, apply);
-                        }
+        List<K> failedKeys = new ArrayList<>();
+        Iterator<Entry<List<K>, Map<K, T>>> results = partitionResults(partition, task);
+        while (results.hasNext()) {
+            Entry<List<K>, Map<K, T>> entry = results.next();
+            if (entry.getValue() == null) {
+                failedKeys.addAll(entry.getKey());
+            } else {
+                result.putAll(entry.getValue());
+            }
+        }
+        return new PipelineResult<>(result, failedKeys);
+    }
+
+    /**
+     * run partitions on separate connections, at most {@link #pipelineParallelism} at a time.
+     * each partition decodes into its own map, and the consumer takes them one by one in order,
+     * so there is no shared map to lock. partitions are taken from {@code partition} only when
+     * one in flight is consumed.
+     *
+     * @return partitions with their results, {@code null} if failed
+     */
+    private <K, T> Iterator<Entry<List<K>, Map<K, T>>> partitionResults(
+            Iterable<List<K>> partition, Function<List<K>, CompletableFuture<Map<K, T>>> task) {
+        Iterator<List<K>> lists = partition.iterator();
+        int maxInFlight = Math.max(1, pipelineParallelism);
+        Deque<Entry<List<K>, CompletableFuture<Map<K, T>>>> inFlight = new ArrayDeque<>(
+                maxInFlight);
+        return new AbstractIterator<Entry<List<K>, Map<K, T>>>() {
+
+            @Override
+            protected Entry<List<K>, Map<K, T>> computeNext() {
+                fill();
+                Entry<List<K>, CompletableFuture<Map<K, T>>> head = inFlight.poll();
+                if (head == null) {
+                    return endOfData();
+                }
+                if (pipelineParallelism > 1) {
+                    // keep the connections busy while the head is consumed
+                    fill();
+                }
+                return immutableEntry(head.getKey(), head.getValue().join());
+            }
+
+            private void fill() {
+                while (inFlight.size() < maxInFlight && lists.hasNext()) {
+                    List<K> list = lists.next();
+                    inFlight.add(immutableEntry(list, task.apply(list)));
+                }
+            }
+        };
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> Stream<Entry<K, V>> pipelineStream(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function) {
+        return pipelineStream(keys, function, identity());
+    }
+
+    /**
+     * lazy form of {@link #pipeline(Iterable, BiFunction, Function)} for key sets too large to
+     * hold their results in memory. keys are taken partition by partition as the stream is
+     * consumed, with up to {@link Builder#enableParallelPipeline} partitions in flight, so only
+     * results of those partitions are held at a time.
+     *
+     * keys of failed partitions are absent, as {@code pipeline()}.
+     * partitions in flight still complete if the stream is not fully consumed.
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V, T> Stream<Entry<K, T>> pipelineStream(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+        AdaptivePartitionSizer.Site site = partitionSizer == null ? null
+                : partitionSizer.site(function.getClass());
+        Iterable<List<K>> partition = site == null ? partition(keys, pipelinePartitionSize)
+                : site.partition(keys);
+        Iterable<Entry<List<K>, Map<K, T>>> results = () -> {
+            long deadline = System.nanoTime() + pipelineRetryBudgetNanos;
+            return partitionResults(partition, partitionTask(
+                    list -> retryPartition(list, function, decoder, site, deadline, false)));
+        };
+        return StreamSupport.stream(results.spliterator(), false) //
+                .map(Entry::getValue) //
+                .filter(result -> result != null) //
+                .flatMap(result -> result.entrySet().stream());
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> Stream<Entry<K, V>> pipelineStream(Stream<K> keys,
+            BiFunction<P, K, Response<V>> function) {
+        return pipelineStream(keys, function, identity());
+    }
+
+    /**
+     * same as {@link #pipelineStream(Iterable, BiFunction, Function)}, closing {@code keys}
+     * with the returned stream.
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V, T> Stream<Entry<K, T>> pipelineStream(Stream<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+        Iterable<K> iterable = keys::iterator;
+        return pipelineStream(iterable, function, decoder).onClose(keys::close);
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> void pipelineForEach(Iterable<K> keys, BiFunction<P, K, Response<V>> function,
+            BiConsumer<K, V> sink) {
+        pipelineForEach(keys, function, identity(), sink);
+    }
+
+    /**
+     * same as {@link #pipelineStream(Iterable, BiFunction, Function)}, with results passed to
+     * {@code sink} on the calling thread partition by partition.
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V, T> void pipelineForEach(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            BiConsumer<K, T> sink) {
+        try (Stream<Entry<K, T>> stream = pipelineStream(keys, function, decoder)) {
+            stream.forEach(entry -> sink.accept(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * only a partition failed before it was sent, i.e. on borrowing a connection, is retried,
+     * or if {@code idempotent}, also one whose connection broke.
+     * once sent, commands may have run, and error replies or errors of {@code function} or
+     * {@code decoder} would only happen again.
+     *
+     * @return {@code null} if failed
+     */
+    private <K, V, T> Map<K, T> retryPartition(List<K> list,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            AdaptivePartitionSizer.Site site, long deadline, boolean idempotent) {
+        for (int attempt = 1;; attempt++) {
+            Map<K, T> thisResult = newHashMapWithExpectedSize(list.size());
+            Throwable e = pipelinePartition(list, function, decoder, site, thisResult::put);
+            if (e == null) {
+                return thisResult;
+            }
+            boolean retryable = e instanceof UnsentPartitionException
+                    || idempotent && e instanceof JedisConnectionException;
+            if (!retryable || attempt >= pipelineRetryAttempts
+                    || System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return completed by the first attempt succeeded, or {@code null} if all failed
+     */
+    private <K, V, T> CompletableFuture<Map<K, T>> hedgedPartition(List<K> list,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            AdaptivePartitionSizer.Site site, LatencyTracker hedgeTracker, long deadline) {
+        if (onExecutor()) {
+            // waiting for hedges on the executor running this may starve it
+            return completedFuture(
+                    retryPartition(list, function, decoder, site, deadline, true));
+        }
+        CompletableFuture<Map<K, T>> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        Runnable attempt = () -> {
+            long start = System.nanoTime();
+            Map<K, T> thisResult = retryPartition(list, function, decoder, site, deadline, true);
+            if (thisResult != null) {
+                hedgeTracker.record(System.nanoTime() - start);
+                result.complete(thisResult);
+            } else if (running.decrementAndGet() == 0) {
+                result.complete(null);
+            }
+        };
+        asyncExecutor.execute(attempt);
+        long threshold = hedgeTracker.threshold();
+        if (threshold != Long.MAX_VALUE) {
+            ScheduledFuture<?> hedge = HEDGE_TIMER.get().schedule(() -> {
+                if (!result.isDone() && running.incrementAndGet() > 1) {
+                    asyncExecutor.execute(attempt);
+                }
+            }, threshold, NANOSECONDS);
+            result.thenRun(() -> hedge.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * @param site adaptive partition sizing to feed with the sync latency and response size,
+     *        {@code null} if disabled
+     * @return the failure, {@code null} if succeeded
+     */
+    private <K, V, T> Throwable pipelinePartition(List<K> list,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            AdaptivePartitionSizer.Site site, BiConsumer<K, T> sink) {
+        Object pool = poolFactory.get();
+        HostAndPort jedisInfo = null;
+        Object stopWatch = stopWatchStart();
+        long startNanos = System.nanoTime();
+        Map<Client, int[]> shardSizes = null;
+        boolean borrowed = false;
+        try (J jedis = getJedis(pool)) {
+            borrowed = true;
+            jedisInfo = getJedisInfo(jedis);
+            shardSizes = shardSizes(jedis);
+            syncPartition(jedis, list, function, decoder, site, shardSizes, sink);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, PIPELINE, null, list.size(),
+                    shardSizes);
+            return null;
+        } catch (Throwable e) {
+            exceptionHandler.accept(pool, e);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, PIPELINE, e, list.size(), shardSizes);
+            return borrowed ? e : new UnsentPartitionException(e);
+        }
+    }
+
+    /**
+     * for {@link ClusterJedis}, keys redirected by {@code MOVED} or {@code ASK} are sent again
+     * to the new node, up to {@link #MAX_REDIRECTIONS} times.
+     *
+     * @param shardSizes counts commands per shard connection, {@code null} if not counted
+     */
+    private <K, V, T> void syncPartition(J jedis, List<K> list,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder,
+            AdaptivePartitionSizer.Site site, Map<Client, int[]> shardSizes,
+            BiConsumer<K, T> sink) {
+        long sendNanos = System.nanoTime();
+        Map<K, Response<V>> thisMap = sendPartition(jedis, list, function, null, shardSizes);
+        long syncNanos = System.nanoTime() - sendNanos;
+        long bytes = 0;
+        for (int redirections = 0;; redirections++) {
+            Map<K, JedisRedirectionException> redirected = null;
+            for (Entry<K, Response<V>> entry : thisMap.entrySet()) {
+                V value;
+                try {
+                    value = entry.getValue().get();
+                } catch (JedisRedirectionException e) {
+                    if (!(jedis instanceof ClusterJedis) || redirections >= MAX_REDIRECTIONS) {
+                        throw e;
                     }
-                    syncPipeline(pipeline);
-                    stopWatchStop(stopWatch, jedisInfo, PIPELINE, null);
-                    thisMap.forEach((key, value) -> result.put(key, decoder.apply(value.get())));
-                } catch (Throwable e) {
-                    exceptionHandler.accept(pool, e);
-                    stopWatchStop(stopWatch, jedisInfo, PIPELINE, e);
+                    if (redirected == null) {
+                        redirected = new HashMap<>();
+                    }
+                    redirected.put(entry.getKey(), e);
+                    continue;
+                }
+                if (site != null) {
+                    bytes += AdaptivePartitionSizer.weigh(value);
                 }
+                sink.accept(entry.getKey(), decoder.apply(value));
+            }
+            if (redirected == null) {
+                break;
+            }
+            Map<K, redis.clients.jedis.HostAndPort> askingNodes = new HashMap<>();
+            redirected.forEach((key, e) -> {
+                if (e instanceof JedisAskDataException) {
+                    askingNodes.put(key, e.getTargetNode());
+                }
+            });
+            thisMap = sendPartition(jedis, new ArrayList<>(redirected.keySet()), function,
+                    askingNodes, shardSizes);
+        }
+        if (site != null) {
+            site.record(list.size(), syncNanos, bytes);
+        }
+    }
+
+    /**
+     * @param askingNodes for {@link ClusterJedis} only, keys to send to a node after
+     *        {@code ASKING}, {@code null} if none
+     */
+    private <K, V> Map<K, Response<V>> sendPartition(J jedis, List<K> list,
+            BiFunction<P, K, Response<V>> function,
+            Map<K, redis.clients.jedis.HostAndPort> askingNodes, Map<Client, int[]> shardSizes) {
+        P pipeline = pipeline(jedis, shardSizes);
+        Map<K, Response<V>> thisMap = new HashMap<>(list.size());
+        try {
+            for (K key : list) {
+                if (askingNodes != null) {
+                    ((ClusterJedisPipeline) pipeline).asking(askingNodes.get(key));
+                }
+                Response<V> apply = function.apply(pipeline, key);
+                if (apply != null) {
+                    thisMap.put(key, apply);
+                }
+            }
+            syncPipeline(pipeline);
+        } catch (Throwable e) {
+            discard(jedis, pipeline);
+            throw e;
+        }
+        return thisMap;
+    }
+
+    /**
+     * run {@code block} on one connection borrowed for the whole block, instead of one per
+     * command, e.g.
+     * <pre>{@code
+     * String value = helper.withSession(session -> {
+     *     String id = session.get().get("name_" + name);
+     *     return session.get().hget("user_" + id, "profile");
+     * });
+     * }</pre>
+     * the session must not be used after the block, nor by other threads.
+     */
+    public <T> T withSession(Function<Session, T> block) {
+        Object pool = poolFactory.get();
+        Session session = null;
+        try (J jedis = getJedis(pool)) {
+            session = new Session(pool, jedis);
+            return block.apply(session);
+        } catch (Throwable e) {
+            if (session == null) {
+                // commands in the session have reported their own failures
+                exceptionHandler.accept(pool, e);
+            }
+            throw propagate(e);
+        } finally {
+            if (session != null) {
+                session.closed = true;
+            }
+        }
+    }
+
+    /**
+     * pipelined {@code GET}s, only keys missing in the near cache are sent to redis.
+     * {@code keyGenerator} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, T> Map<K, T> pipelineGet(Iterable<K> keys, Function<K, String> keyGenerator,
+            Function<String, T> decoder) {
+        if (nearCache == null) {
+            return pipeline(keys, (p, key) -> p.get(keyGenerator.apply(key)), decoder,
+                    keyGenerator.getClass());
+        }
+        Map<K, T> result = new HashMap<>();
+        Map<K, Long> missed = new HashMap<>();
+        for (K key : keys) {
+            Object[] args = { keyGenerator.apply(key) };
+            Object cached = nearCache.get(GET, args);
+            if (cached == NearCache.MISS) {
+                missed.put(key, nearCache.epoch(GET, args));
+            } else {
+                result.put(key, decoder.apply((String) cached));
             }
         }
+        if (!missed.isEmpty()) {
+            pipeline(missed.keySet(), (p, key) -> p.get(keyGenerator.apply(key)), identity(),
+                    keyGenerator.getClass()).forEach((key, value) -> {
+                        nearCache.put(GET, new Object[] { keyGenerator.apply(key) }, value,
+                                missed.get(key));
+                        result.put(key, decoder.apply(value));
+                    });
+        }
         return result;
     }
 
+    /**
+     * run {@code script} by {@code EVALSHA}, or by {@code EVAL} if redis doesn't have it yet.
+     * for {@link ShardedJedis} and {@link ClusterJedis}, it runs on the shard of the first key.
+     *
+     * @return replies as {@code Jedis.eval()}, bulk strings are decoded in utf-8
+     */
+    public Object eval(RedisScript script, List<String> keys, List<String> args) {
+        checkArgument(!keys.isEmpty() || !isSharded(), "no key to locate the shard.");
+        Object pool = poolFactory.get();
+        HostAndPort jedisInfo = null;
+        Object stopWatch = stopWatchStart();
+        long startNanos = System.nanoTime();
+        try (J jedis = getJedis(pool)) {
+            Jedis target = keys.isEmpty() ? (Jedis) jedis : shard(jedis, keys.get(0));
+            jedisInfo = getJedisInfo(target);
+            Object result;
+            boolean asking = false;
+            for (int redirections = 0;; redirections++) {
+                try {
+                    result = eval(target, script, keys, args, asking);
+                    break;
+                } catch (JedisRedirectionException e) {
+                    if (!(jedis instanceof ClusterJedis) || redirections >= MAX_REDIRECTIONS) {
+                        throw e;
+                    }
+                    ((ClusterJedis) jedis).redirected(e);
+                    target = ((ClusterJedis) jedis).getNode(e.getTargetNode());
+                    asking = e instanceof JedisAskDataException;
+                }
+            }
+            stopWatchStop(stopWatch, startNanos, jedisInfo, EVALSHA, null);
+            return result;
+        } catch (Throwable e) {
+            exceptionHandler.accept(pool, e);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, EVALSHA, e);
+            throw propagate(e);
+        }
+    }
+
+    private static Object eval(Jedis jedis, RedisScript script, List<String> keys,
+            List<String> args, boolean asking) {
+        if (asking) {
+            jedis.asking();
+        }
+        try {
+            return jedis.evalsha(script.getSha1(), keys, args);
+        } catch (JedisDataException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            if (asking) {
+                jedis.asking();
+            }
+            return jedis.eval(script.getSource(), keys, args);
+        }
+    }
+
+    public Map<String, Object> evalPipeline(RedisScript script, Iterable<String> keys,
+            Function<String, List<String>> args) {
+        return evalPipeline(script, keys, args, identity());
+    }
+
+    /**
+     * run {@code script} for each key as {@code KEYS[1]} with its {@code args} as {@code ARGV},
+     * pipelined by {@code EVALSHA} in partitions like {@link #pipeline}.
+     * for {@link ShardedJedis} and {@link ClusterJedis}, keys of a partition are sent to their
+     * own shards, and for {@link ClusterJedis} redirected keys are sent again.
+     * a partition got {@code NOSCRIPT} loads the script and re-sends only those commands.
+     *
+     * failed partitions are not retried, as scripts are not always idempotent.
+     *
+     * @param args called on the threads running partitions, concurrently with
+     *        {@link Builder#enableParallelPipeline}, see {@link #pipeline(Iterable, BiFunction,
+     *        Function)}
+     * @param decoder applied to replies as {@link #eval}, on the calling thread
+     * @return keys of failed partitions, or of partitions any script failed in, are absent
+     */
+    public <T> Map<String, T> evalPipeline(RedisScript script, Iterable<String> keys,
+            Function<String, List<String>> args, Function<Object, T> decoder) {
+        Map<String, T> result = new HashMap<>();
+        rawEvalPipeline(script, keys, identity(), key -> {
+            List<String> argList = args.apply(key);
+            byte[][] params = new byte[argList.size() + 1][];
+            params[0] = encode(key);
+            for (int i = 0; i < argList.size(); i++) {
+                params[i + 1] = encode(argList.get(i));
+            }
+            return params;
+        }).forEach((key, value) -> result.put(key, decoder.apply(evalResult(value))));
+        return result;
+    }
+
+    /**
+     * @param params {@code KEYS[1]} followed by {@code ARGV}
+     * @return raw replies of binary {@code EVALSHA}
+     */
+    private <K> Map<K, Object> rawEvalPipeline(RedisScript script, Iterable<K> keys,
+            Function<K, String> keyOf, Function<K, byte[][]> params) {
+        if (keys == null) {
+            return new HashMap<>();
+        }
+        return runPartitions(keys, partition(keys, pipelinePartitionSize),
+                partitionTask(list -> evalPartition(script, list, keyOf, params)))
+                        .getResults();
+    }
+
+    /**
+     * @return {@code null} if failed
+     */
+    private <K> Map<K, Object> evalPartition(RedisScript script, List<K> list,
+            Function<K, String> keyOf, Function<K, byte[][]> params) {
+        Object pool = poolFactory.get();
+        HostAndPort jedisInfo = null;
+        Object stopWatch = stopWatchStart();
+        long startNanos = System.nanoTime();
+        try (J jedis = getJedis(pool)) {
+            Map<K, Object> result = newHashMapWithExpectedSize(list.size());
+            if (jedis instanceof Jedis) {
+                jedisInfo = getJedisInfo(jedis);
+                evalShard((Jedis) jedis, script, list, params, result, null);
+            } else {
+                List<K> pending = list;
+                for (int redirections = 0; !pending.isEmpty(); redirections++) {
+                    Map<Jedis, List<K>> byShard = new IdentityHashMap<>();
+                    for (K key : pending) {
+                        byShard.computeIfAbsent(shard(jedis, keyOf.apply(key)),
+                                shard -> new ArrayList<>()).add(key);
+                    }
+                    Map<K, JedisRedirectionException> redirected = jedis instanceof ClusterJedis
+                            ? new HashMap<>(0) : null;
+                    for (Entry<Jedis, List<K>> entry : byShard.entrySet()) {
+                        evalShard(entry.getKey(), script, entry.getValue(), params, result,
+                                redirected);
+                    }
+                    pending = redirected == null ? emptyList()
+                            : redirect((ClusterJedis) jedis, script, params, redirected,
+                                    redirections, result);
+                }
+            }
+            stopWatchStop(stopWatch, startNanos, jedisInfo, EVALSHA, null, list.size());
+            return result;
+        } catch (Throwable e) {
+            exceptionHandler.accept(pool, e);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, EVALSHA, e, list.size());
+            return null;
+        }
+    }
+
+    /**
+     * @return keys got {@code MOVED} to send again by the refreshed slot map, keys got
+     *         {@code ASK} are sent one by one here as it's only during slot migration
+     */
+    private static <K> List<K> redirect(ClusterJedis jedis, RedisScript script,
+            Function<K, byte[][]> params, Map<K, JedisRedirectionException> redirected,
+            int redirections, Map<K, Object> result) {
+        List<K> moved = new ArrayList<>(0);
+        for (Entry<K, JedisRedirectionException> entry : redirected.entrySet()) {
+            JedisRedirectionException e = entry.getValue();
+            if (redirections >= MAX_REDIRECTIONS) {
+                throw e;
+            }
+            jedis.redirected(e);
+            if (e instanceof JedisAskDataException) {
+                Jedis node = jedis.getNode(e.getTargetNode());
+                byte[][] keyAndArgs = params.apply(entry.getKey());
+                node.asking();
+                Object value;
+                try {
+                    value = node.evalsha(script.getSha1Bytes(), 1, keyAndArgs);
+                } catch (JedisDataException ex) {
+                    if (!isNoScript(ex)) {
+                        throw ex;
+                    }
+                    node.asking();
+                    value = node.eval(script.getSourceBytes(), 1, keyAndArgs);
+                }
+                result.put(entry.getKey(), value);
+            } else {
+                moved.add(entry.getKey());
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * @param redirected to collect keys redirected by redis cluster, {@code null} if it's not
+     */
+    private static <K> void evalShard(Jedis jedis, RedisScript script, List<K> keys,
+            Function<K, byte[][]> params, Map<K, Object> result,
+            Map<K, JedisRedirectionException> redirected) {
+        List<K> noScript = evalShard0(jedis, script, keys, params, result, redirected);
+        if (!noScript.isEmpty()) {
+            jedis.scriptLoad(script.getSourceBytes());
+            noScript = evalShard0(jedis, script, noScript, params, result, redirected);
+            if (!noScript.isEmpty()) {
+                throw new JedisDataException("fail to load script:" + script);
+            }
+        }
+    }
+
+    /**
+     * @return keys got {@code NOSCRIPT}
+     */
+    private static <K> List<K> evalShard0(Jedis jedis, RedisScript script, List<K> keys,
+            Function<K, byte[][]> params, Map<K, Object> result,
+            Map<K, JedisRedirectionException> redirected) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Object>> responses = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            responses.add(pipeline.evalsha(script.getSha1Bytes(), 1, params.apply(key)));
+        }
+        pipeline.sync();
+        List<K> noScript = new ArrayList<>(0);
+        JedisDataException error = null;
+        for (int i = 0; i < keys.size(); i++) {
+            try {
+                result.put(keys.get(i), responses.get(i).get());
+            } catch (JedisDataException e) {
+                if (redirected != null && e instanceof JedisRedirectionException) {
+                    redirected.put(keys.get(i), (JedisRedirectionException) e);
+                } else if (isNoScript(e)) {
+                    noScript.add(keys.get(i));
+                } else if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return noScript;
+    }
+
+    private static boolean isNoScript(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith(NO_SCRIPT);
+    }
+
+    /**
+     * the same decoding as {@code Jedis.eval()}.
+     */
+    private static Object evalResult(Object result) {
+        if (result instanceof byte[]) {
+            return encode((byte[]) result);
+        } else if (result instanceof List) {
+            List<?> list = (List<?>) result;
+            List<Object> decoded = new ArrayList<>(list.size());
+            for (Object item : list) {
+                decoded.add(evalResult(item));
+            }
+            return decoded;
+        } else {
+            return result;
+        }
+    }
+
+    /**
+     * @return {@code null} if metrics are not enabled
+     */
+    public JedisMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * drop a key from the near cache after it was changed outside the {@link #get()} proxy.
+     */
+    public void invalidateNearCache(String key) {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    public void invalidateNearCache(byte[] key) {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    /**
+     * @return hit/miss/eviction counts of the near cache, all zero if it's not enabled.
+     */
+    public CacheStats getNearCacheStats() {
+        return nearCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : nearCache.stats();
+    }
+
+    int getPipelinePartitionSize() {
+        return pipelinePartitionSize;
+    }
+
+    /**
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V> CompletableFuture<Map<K, V>> pipelineAsync(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function) {
+        return pipelineAsync(keys, function, identity());
+    }
+
+    /**
+     * {@link #pipeline(Iterable, BiFunction, Function)} on the async executor.
+     * {@code function} and {@code decoder} may run concurrently on other threads,
+     * see {@link #pipeline(Iterable, BiFunction, Function)}.
+     */
+    public <K, V, T> CompletableFuture<Map<K, T>> pipelineAsync(Iterable<K> keys,
+            BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+        return supplyAsyncNested(() -> pipeline(keys, function, decoder), asyncExecutor);
+    }
+
+    /**
+     * run a command through {@link #get()} on the async executor, e.g.
+     * {@code helper.async(j -> j.get("key")).thenCombine(...)}
+     */
+    public <T> CompletableFuture<T> async(Function<JedisCommands, T> command) {
+        return supplyAsyncNested(() -> command.apply(get()), asyncExecutor);
+    }
+
+    public <T> CompletableFuture<T> asyncBinary(Function<BinaryJedisCommands, T> command) {
+        return supplyAsyncNested(() -> command.apply(getBinary()), asyncExecutor);
+    }
+
     public BasicCommands getBasic() {
         return basicCommandsSupplier.get();
     }
 
     private BasicCommands getBasic0() {
         return (BasicCommands) newProxyInstance(jedisType.getClassLoader(),
-                jedisType.getInterfaces(), new PoolableJedisCommands());
+                jedisType.getInterfaces(), new PoolableJedisCommands(null, null));
     }
 
     public JedisCommands get() {
@@ -193,7 +1177,7 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
 
     private JedisCommands get0() {
         return (JedisCommands) newProxyInstance(jedisType.getClassLoader(),
-                jedisType.getInterfaces(), new PoolableJedisCommands());
+                jedisType.getInterfaces(), new PoolableJedisCommands(autoBatcher, nearCache));
     }
 
     public BinaryJedisCommands getBinary() {
@@ -202,7 +1186,49 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
 
     private BinaryJedisCommands getBinary0() {
         return (BinaryJedisCommands) newProxyInstance(binaryJedisType.getClassLoader(),
-                binaryJedisType.getInterfaces(), new PoolableJedisCommands());
+                binaryJedisType.getInterfaces(), new PoolableJedisCommands(autoBatcher, nearCache));
+    }
+
+    /**
+     * typed commands with keys and values stored as bytes by {@code codec}, e.g.
+     * {@code helper.withCodec(RedisCodec.compressed(userCodec, 512)).mget(userIds)}.
+     */
+    public <K, V> CodecCommands<P, K, V> withCodec(RedisCodec<K, V> codec) {
+        return new CodecCommands<>(this, checkNotNull(codec));
+    }
+
+    /**
+     * drop the socket of a connection whose pending replies won't be read, without flushing
+     * commands still buffered. it reconnects on its next command, so it can be returned to its
+     * pool as usual.
+     */
+    static void discard(Client client) {
+        client.resetPipelinedCount();
+        Socket socket = client.getSocket();
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    /**
+     * drop the connections of a pipeline failed before all replies were read, before they are
+     * returned to the pool. pipelines not created by {@link Jedis#pipelined()} are not drained
+     * by jedis on return, and a partly read one would leave replies to the next borrower.
+     * all shards of a {@link ShardedJedis} are dropped, as its pipeline doesn't tell which
+     * were written.
+     */
+    private void discard(J jedis, P pipeline) {
+        if (pipeline instanceof ClusterJedisPipeline) {
+            ((ClusterJedisPipeline) pipeline).discard();
+        } else if (jedis instanceof Jedis) {
+            discard(((Jedis) jedis).getClient());
+        } else if (jedis instanceof ShardedJedis) {
+            ((ShardedJedis) jedis).getAllShards().forEach(shard -> discard(shard.getClient()));
+        }
     }
 
     private void syncPipeline(P pipeline) {
@@ -210,32 +1236,154 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
             ((Pipeline) pipeline).sync();
         } else if (pipeline instanceof ShardedJedisPipeline) {
             ((ShardedJedisPipeline) pipeline).sync();
+        } else if (pipeline instanceof ClusterJedisPipeline) {
+            ((ClusterJedisPipeline) pipeline).sync();
+        }
+    }
+
+    private void recordHotKey(HostAndPort host, String command, Object[] args) {
+        if (hotKeys != null && args.length > 0 && hotKeys.sample()) {
+            hotKeys.record(host, command, args[0]);
         }
     }
 
     private HostAndPort getJedisInfo(Object obj) {
-        if (obj instanceof Jedis) {
-            Jedis jedis = (Jedis) obj;
-            return HostAndPort.fromParts(jedis.getClient().getHost(), jedis.getClient().getPort());
+        if (recordsHosts && obj instanceof Jedis) {
+            return JedisMetrics.host(((Jedis) obj).getClient());
         }
         return null;
     }
 
+    /**
+     * @return a map to count pipelined commands per shard connection, if metrics of a
+     *         {@link ShardedJedis} pipeline can be recorded per shard
+     */
+    private Map<Client, int[]> shardSizes(J jedis) {
+        return metrics != null && jedis instanceof ShardedJedis ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * @return host of the shard of {@code args[0]} for {@link ShardedJedis} and
+     *         {@link ClusterJedis}, {@code null} if not recorded
+     */
+    private HostAndPort getJedisInfo(Object obj, Object[] args) {
+        if (!recordsHosts) {
+            return null;
+        }
+        if (obj instanceof ClusterJedis) {
+            return getJedisInfo(clusterNode((ClusterJedis) obj, args));
+        }
+        if (obj instanceof BinaryShardedJedis && args.length > 0) {
+            if (args[0] instanceof String) {
+                return getJedisInfo(((BinaryShardedJedis) obj).getShard((String) args[0]));
+            } else if (args[0] instanceof byte[]) {
+                return getJedisInfo(((BinaryShardedJedis) obj).getShard((byte[]) args[0]));
+            }
+        }
+        return getJedisInfo(obj);
+    }
+
+    /**
+     * @return the node of {@code args[0]}, or the first master for commands without keys
+     */
+    private static Jedis clusterNode(ClusterJedis jedis, Object[] args) {
+        if (args.length > 0) {
+            if (args[0] instanceof String) {
+                return jedis.getShard((String) args[0]);
+            } else if (args[0] instanceof byte[]) {
+                return jedis.getShard((byte[]) args[0]);
+            }
+        }
+        return jedis.getAllShards().get(0);
+    }
+
+    /**
+     * run a command on the node of its key, following redirections.
+     */
+    private static Object invokeCluster(ClusterJedis jedis, MethodHandle invoker, Object[] args)
+            throws Throwable {
+        Jedis node = clusterNode(jedis, args);
+        for (int redirections = 0;; redirections++) {
+            try {
+                return (Object) invoker.invokeExact((Object) node, args);
+            } catch (JedisRedirectionException e) {
+                if (redirections >= MAX_REDIRECTIONS) {
+                    throw e;
+                }
+                jedis.redirected(e);
+                node = jedis.getNode(e.getTargetNode());
+                if (e instanceof JedisAskDataException) {
+                    node.asking();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the jedis of the shard of {@code key} for {@link ShardedJedis} and
+     *         {@link ClusterJedis}, or the jedis itself
+     */
+    private static Jedis shard(Object jedis, String key) {
+        if (jedis instanceof ShardedJedis) {
+            return ((ShardedJedis) jedis).getShard(key);
+        } else if (jedis instanceof ClusterJedis) {
+            return ((ClusterJedis) jedis).getShard(key);
+        } else {
+            return (Jedis) jedis;
+        }
+    }
+
+    private static List<Jedis> allShards(Object jedis) {
+        if (jedis instanceof ShardedJedis) {
+            return new ArrayList<>(((ShardedJedis) jedis).getAllShards());
+        } else {
+            return ((ClusterJedis) jedis).getAllShards();
+        }
+    }
+
+    /**
+     * keys are spread over multiple redis, by {@link ShardedJedis} or {@link ClusterJedis}.
+     */
+    private boolean isSharded() {
+        return ShardedJedis.class.isAssignableFrom(jedisType)
+                || ClusterJedisPipeline.class.isAssignableFrom(pipelineType);
+    }
+
     @SuppressWarnings("unchecked")
     private J getJedis(Object pool) {
         if (pool instanceof Pool) {
-            return ((Pool<J>) pool).getResource();
+            if (metrics == null) {
+                return ((Pool<J>) pool).getResource();
+            }
+            long start = System.nanoTime();
+            J jedis = ((Pool<J>) pool).getResource();
+            metrics.recordBorrow(System.nanoTime() - start);
+            return jedis;
         } else {
             throw new IllegalArgumentException("invalid pool:" + pool);
         }
     }
 
-    @SuppressWarnings("unchecked")
     private P pipeline(J jedis) {
+        return pipeline(jedis, null);
+    }
+
+    /**
+     * @param shardSizes counts commands per shard connection of a {@link ShardedJedis},
+     *        {@code null} if not counted
+     */
+    @SuppressWarnings("unchecked")
+    private P pipeline(J jedis, Map<Client, int[]> shardSizes) {
         if (jedis instanceof Jedis) {
-            return (P) ((Jedis) jedis).pipelined();
+            return (P) (hotKeys == null ? ((Jedis) jedis).pipelined()
+                    : new TrackedPipeline(((Jedis) jedis).getClient(), hotKeys));
         } else if (jedis instanceof ShardedJedis) {
-            return (P) ((ShardedJedis) jedis).pipelined();
+            return (P) (hotKeys == null && shardSizes == null ? ((ShardedJedis) jedis).pipelined()
+                    : new TrackedShardedPipeline((ShardedJedis) jedis, hotKeys, shardSizes));
+        } else if (jedis instanceof ClusterJedis) {
+            ClusterJedisPipeline pipeline = ((ClusterJedis) jedis).pipelined();
+            pipeline.setHotKeyTracker(hotKeys);
+            return (P) pipeline;
         } else {
             throw new IllegalArgumentException("invalid jedis:" + jedis);
         }
@@ -251,9 +1399,96 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
                 bit % keyHashRange));
     }
 
+    /**
+     * batch form of {@link #getShardBit(Collection, String, int)} without boxing.
+     * bits are grouped by shard key, and each group is read by one server-side script
+     * ({@code GETBIT} per bit), see {@link #evalPipeline}.
+     *
+     * @return bit {@code i} is set if {@code bits[i]} is set
+     */
+    public BitSet getShardBits(long[] bits, String keyPrefix, int keyHashRange) {
+        return shardBits(bits, keyPrefix, keyHashRange, null);
+    }
+
+    public BitSet getShardBits(LongCollection bits, String keyPrefix, int keyHashRange) {
+        return getShardBits(bits.toArray(), keyPrefix, keyHashRange);
+    }
+
+    /**
+     * batch form of {@link #setShardBitSet} without boxing, grouped like {@link #getShardBits}.
+     *
+     * @return bit {@code i} is set if {@code bits[i]} was set before
+     */
+    public BitSet setShardBits(long[] bits, String keyPrefix, int keyHashRange, boolean value) {
+        return shardBits(bits, keyPrefix, keyHashRange, value);
+    }
+
+    public BitSet setShardBits(LongCollection bits, String keyPrefix, int keyHashRange,
+            boolean value) {
+        return setShardBits(bits.toArray(), keyPrefix, keyHashRange, value);
+    }
+
+    /**
+     * @param value {@code null} to get bits
+     */
+    private BitSet shardBits(long[] bits, String keyPrefix, int keyHashRange, Boolean value) {
+        checkArgument(keyHashRange > 0);
+        LongObjectMap<IntArrayList> byShard = new LongObjectHashMap<>();
+        for (int i = 0; i < bits.length; i++) {
+            long shard = bits[i] / keyHashRange;
+            IntArrayList indexes = byShard.get(shard);
+            if (indexes == null) {
+                indexes = new IntArrayList();
+                byShard.put(shard, indexes);
+            }
+            indexes.add(i);
+        }
+        List<ShardBitGroup> groups = new ArrayList<>();
+        for (LongObjectCursor<IntArrayList> cursor : byShard) {
+            String key = keyPrefix + "_" + cursor.key;
+            int[] indexes = cursor.value.toArray();
+            for (int from = 0; from < indexes.length; from += SHARD_BITS_PER_COMMAND) {
+                groups.add(new ShardBitGroup(key, copyOfRange(indexes, from,
+                        Math.min(from + SHARD_BITS_PER_COMMAND, indexes.length))));
+            }
+        }
+        Map<ShardBitGroup, Object> results = rawEvalPipeline(
+                value == null ? ShardBitGroup.GET_BITS : ShardBitGroup.SET_BITS, groups,
+                group -> group.key, group -> group.params(bits, keyHashRange, value));
+        if (results.size() < groups.size()) {
+            throw new JedisException("fail to access shard bits of:" + keyPrefix);
+        }
+        BitSet result = new BitSet(bits.length);
+        results.forEach((group, r) -> group.collect(r, result));
+        return result;
+    }
+
+    /**
+     * exact count of set bits in [start, end]. shards fully inside the range are counted by
+     * {@code BITCOUNT key}, the partial ones at both ends by {@code BITCOUNT key start end}
+     * on their whole bytes plus {@code GETBIT} on the remaining edge bits.
+     */
     public long getShardBitCount(String keyPrefix, int keyHashRange, long start, long end) {
-        return generateKeys(keyPrefix, keyHashRange, start, end).values().stream()
-                .mapToLong(get()::bitcount).sum();
+        List<Function<P, Response<?>>> ops = new ArrayList<>();
+        for (ShardSegment segment : shardSegments(keyHashRange, start, end)) {
+            String key = segment.key(keyPrefix);
+            if (segment.full) {
+                ops.add(p -> p.bitcount(key));
+            } else {
+                splitBits(segment.lo, segment.hi,
+                        (from, to) -> ops.add(p -> p.bitcount(key, from, to)),
+                        bit -> ops.add(p -> p.getbit(key, bit)));
+            }
+        }
+        long count = 0;
+        for (Object value : pipelineOps(ops, "getShardBitCount").values()) {
+            if (value instanceof Boolean) {
+                count += (Boolean) value ? 1 : 0;
+            } else {
+                count += (Long) value;
+            }
+        }
+        return count;
     }
 
     public boolean setShardBit(long bit, String keyPrefix, int keyHashRange) {
@@ -275,56 +1510,309 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         return setShardBitSet(bits, keyPrefix, keyHashRange, true);
     }
 
+    /**
+     * clear bits in [start, end]. shards fully inside the range are deleted, only the bits
+     * in range are cleared in the partial ones at both ends.
+     */
     public void delShardBit(String keyPrefix, int keyHashRange, long start, long end) {
-        Map<Long, String> allKeys = generateKeys(keyPrefix, keyHashRange, start, end);
-        allKeys.values().forEach(get()::del);
+        List<ShardSegment> segments = shardSegments(keyHashRange, start, end);
+        Map<ShardSegment, Long> lengths = strlen(keyPrefix, segments);
+        List<Function<P, Response<?>>> ops = new ArrayList<>();
+        for (ShardSegment segment : segments) {
+            String key = segment.key(keyPrefix);
+            if (segment.full) {
+                ops.add(p -> p.del(key));
+            } else {
+                clearBits(key, segment.lo, Math.min(segment.hi, lengths.get(segment) * 8 - 1),
+                        ops);
+            }
+        }
+        pipelineOps(ops, "delShardBit");
+    }
+
+    /**
+     * make bits in [start, end] under {@code toPrefix} the same as under {@code fromPrefix},
+     * {@code pipelinePartitionSize} shards at a time.
+     */
+    public void copyShardBit(String fromPrefix, String toPrefix, int keyHashRange, long start,
+            long end) {
+        for (List<ShardSegment> segments : partition(shardSegments(keyHashRange, start, end),
+                pipelinePartitionSize)) {
+            Map<ShardSegment, byte[]> sources = pipeline(segments,
+                    (p, segment) -> p.get(encode(segment.key(fromPrefix))));
+            if (sources.size() < segments.size()) {
+                throw new JedisException("fail to get shard keys of:" + fromPrefix);
+            }
+            Map<ShardSegment, Long> lengths = strlen(toPrefix, segments);
+            List<Function<P, Response<?>>> ops = new ArrayList<>();
+            for (ShardSegment segment : segments) {
+                String key = segment.key(toPrefix);
+                byte[] rawKey = encode(key);
+                byte[] source = sources.get(segment);
+                if (segment.full) {
+                    if (source == null) {
+                        ops.add(p -> p.del(rawKey));
+                    } else {
+                        ops.add(p -> p.set(rawKey, source));
+                    }
+                } else {
+                    copyBits(source == null ? new byte[0] : source, key, segment.lo, segment.hi,
+                            lengths.get(segment), ops);
+                }
+            }
+            pipelineOps(ops, "copyShardBit");
+        }
+    }
+
+    /**
+     * {@link #copyShardBit} then {@link #delShardBit} on the source, not atomic.
+     */
+    public void moveShardBit(String fromPrefix, String toPrefix, int keyHashRange, long start,
+            long end) {
+        copyShardBit(fromPrefix, toPrefix, keyHashRange, start, end);
+        delShardBit(fromPrefix, keyHashRange, start, end);
     }
 
     public Stream<Long> iterateShardBit(String keyPrefix, int keyHashRange, long start, long end) {
-        Map<Long, String> allKeys = generateKeys(keyPrefix, keyHashRange, start, end);
-        return allKeys.entrySet().stream().flatMap(this::mapToLong);
+        return iterateShardBitAsLong(keyPrefix, keyHashRange, start, end).boxed();
     }
 
-    private Map<Long, String> generateKeys(String keyPrefix, int keyHashRange, long start,
+    /**
+     * set bits in [start, end], ascending. shard keys are fetched in pipelined batches
+     * of {@code pipelinePartitionSize}, and the next batch is fetched while the current one
+     * is being consumed.
+     */
+    public LongStream iterateShardBitAsLong(String keyPrefix, int keyHashRange, long start,
             long end) {
-        Map<Long, String> result = new LinkedHashMap<>();
-        for (long i = start; i <= end; i += keyHashRange) {
-            result.put((i / keyHashRange) * keyHashRange, keyPrefix + "_" + (i / keyHashRange));
+        return longStream(spliteratorUnknownSize(
+                new ShardBitIterator(keyPrefix, keyHashRange, start, end),
+                ORDERED | DISTINCT | NONNULL), false);
+    }
+
+    public void forEachShardBit(String keyPrefix, int keyHashRange, long start, long end,
+            LongConsumer consumer) {
+        new ShardBitIterator(keyPrefix, keyHashRange, start, end).forEachRemaining(consumer);
+    }
+
+    /**
+     * byte length of the keys of partial segments, to avoid extending them with zeros.
+     */
+    private Map<ShardSegment, Long> strlen(String keyPrefix, List<ShardSegment> segments) {
+        List<ShardSegment> partial = segments.stream().filter(segment -> !segment.full)
+                .collect(toList());
+        Map<ShardSegment, Long> result = pipeline(partial,
+                (p, segment) -> p.strlen(segment.key(keyPrefix)));
+        if (result.size() < partial.size()) {
+            throw new JedisException("fail to get length of shard keys:" + keyPrefix);
         }
         return result;
     }
 
-    private Stream<Long> mapToLong(Entry<Long, String> entry) {
-        byte[] bytes = getBinary().get(entry.getValue().getBytes());
-        List<Long> result = new ArrayList<>();
-        if (bytes != null && bytes.length > 0) {
-            for (int i = 0; i < (bytes.length * 8); i++) {
-                if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
-                    result.add(entry.getKey() + i);
+    private void clearBits(String key, long lo, long hi, List<Function<P, Response<?>>> ops) {
+        byte[] rawKey = encode(key);
+        splitBits(lo, hi, (from, to) -> {
+            byte[] zeros = new byte[(int) (to - from + 1)];
+            ops.add(p -> p.setrange(rawKey, from, zeros));
+        }, bit -> ops.add(p -> p.setbit(key, bit, false)));
+    }
+
+    private void copyBits(byte[] source, String key, long lo, long hi, long targetLength,
+            List<Function<P, Response<?>>> ops) {
+        byte[] rawKey = encode(key);
+        splitBits(lo, hi, (from, to) -> {
+            byte[] bytes = from < source.length
+                    ? copyOfRange(source, from.intValue(), to.intValue() + 1)
+                    : new byte[(int) (to - from + 1)];
+            boolean allZero = true;
+            for (byte b : bytes) {
+                if (b != 0) {
+                    allZero = false;
+                    break;
                 }
             }
+            if (allZero) {
+                clearBits(key, from * 8, Math.min(to * 8 + 7, targetLength * 8 - 1), ops);
+            } else {
+                ops.add(p -> p.setrange(rawKey, from, bytes));
+            }
+        }, bit -> {
+            int index = (int) (bit / 8);
+            if (index < source.length && (source[index] & (0x80 >>> (bit % 8))) != 0) {
+                ops.add(p -> p.setbit(key, bit, true));
+            } else if (bit < targetLength * 8) {
+                ops.add(p -> p.setbit(key, bit, false));
+            }
+        });
+    }
+
+    /**
+     * split bits [lo, hi] of a key into its whole bytes and the remaining bits at both edges.
+     */
+    private static void splitBits(long lo, long hi, BiConsumer<Long, Long> wholeBytes,
+            LongConsumer edgeBit) {
+        long firstByte = (lo + 7) / 8;
+        long lastByte = (hi + 1) / 8 - 1;
+        if (firstByte > lastByte) {
+            for (long bit = lo; bit <= hi; bit++) {
+                edgeBit.accept(bit);
+            }
+            return;
+        }
+        for (long bit = lo; bit < firstByte * 8; bit++) {
+            edgeBit.accept(bit);
+        }
+        wholeBytes.accept(firstByte, lastByte);
+        for (long bit = (lastByte + 1) * 8; bit <= hi; bit++) {
+            edgeBit.accept(bit);
+        }
+    }
+
+    private static List<ShardSegment> shardSegments(int keyHashRange, long start, long end) {
+        checkArgument(keyHashRange > 0);
+        List<ShardSegment> result = new ArrayList<>();
+        for (long shard = start / keyHashRange; shard <= end / keyHashRange; shard++) {
+            long base = shard * keyHashRange;
+            long lo = Math.max(start, base) - base;
+            long hi = Math.min(end, base + keyHashRange - 1) - base;
+            if (lo <= hi) {
+                result.add(new ShardSegment(shard, lo, hi, lo == 0 && hi == keyHashRange - 1));
+            }
         }
-        return result.stream();
+        return result;
     }
 
+    /**
+     * run each op in pipelines, fail if any of them was not executed.
+     *
+     * @param callSite key of adaptive partitioning, see {@link AdaptivePartitionSizer#site}
+     */
+    @SuppressWarnings("unchecked")
+    Map<Function<P, Response<?>>, Object> pipelineOps(List<Function<P, Response<?>>> ops,
+            Object callSite) {
+        Map<Function<P, Response<?>>, Object> result = pipeline(ops,
+                (p, op) -> (Response<Object>) op.apply(p), identity(), callSite);
+        if (result.size() < ops.size()) {
+            throw new JedisException(
+                    "fail to execute " + (ops.size() - result.size()) + " of " + ops.size());
+        }
+        return result;
+    }
+
+    /**
+     * for {@link ShardedJedis} and {@link ClusterJedis}, all shards (masters) are scanned in
+     * parallel on the async executor and merged into one stream, buffering at most
+     * {@link #SCAN_PAGES_PER_SHARD} pages (or the scan prefetch depth) per shard.
+     * the remaining scans are cancelled when the stream is closed, so use it in
+     * try-with-resources if it may not be fully consumed:
+     * <pre>{@code
+     * try (Stream<String> keys = helper.scan(params)) {
+     *     keys.filter(...).findFirst();
+     * }
+     * }</pre>
+     * an unclosed stream only cancels them after it's garbage collected.
+     */
     @SuppressWarnings("RedundantTypeArguments")
     public Stream<String> scan(ScanParams params) {
+        if (isSharded()) {
+            return shardedScan((jedis, cursor) -> jedis.scan(cursor, params));
+        }
         // javac cannot infer types...
         return this.<String, String> scan((j, c) -> {
             if (j instanceof Jedis) {
                 return ((Jedis) j).scan(c, params);
-            } else if (j instanceof ShardedJedis) {
+            } else {
                 throw new UnsupportedOperationException();
+            }
+        }, ScanResult::getStringCursor, "0");
+    }
+
+    /**
+     * same as {@link #scan(ScanParams)}, for keys which are not valid utf-8.
+     */
+    @SuppressWarnings("RedundantTypeArguments")
+    public Stream<byte[]> scanBinary(ScanParams params) {
+        if (isSharded()) {
+            return shardedScan((jedis, cursor) -> jedis.scan(encode(cursor), params));
+        }
+        // javac cannot infer types...
+        return this.<String, byte[]> scan((j, c) -> {
+            if (j instanceof Jedis) {
+                return ((Jedis) j).scan(encode(c), params);
             } else {
                 throw new UnsupportedOperationException();
             }
-        }, ScanResult::getStringCursor, "0").stream();
+        }, ScanResult::getStringCursor, "0");
+    }
+
+    private <R> Stream<R> shardedScan(BiFunction<Jedis, String, ScanResult<R>> scanFunction) {
+        List<Function<J, Jedis>> shards = new ArrayList<>();
+        Object pool = poolFactory.get();
+        try (J jedis = getJedis(pool)) {
+            if (jedis instanceof ClusterJedis) {
+                // a cursor is only valid on its node, even if the slot map changes during scan
+                for (redis.clients.jedis.HostAndPort node : ((ClusterJedis) jedis).getMasters()) {
+                    shards.add(j -> ((ClusterJedis) j).getNode(node));
+                }
+            } else {
+                for (int i = 0; i < allShards(jedis).size(); i++) {
+                    int shard = i;
+                    shards.add(j -> allShards(j).get(shard));
+                }
+            }
+        } catch (Throwable e) {
+            exceptionHandler.accept(pool, e);
+            throw propagate(e);
+        }
+        List<ConcurrentPageIterator.Producer<R>> producers = new ArrayList<>(shards.size());
+        for (Function<J, Jedis> shard : shards) {
+            producers.add(sink -> {
+                String cursor = "0";
+                do {
+                    ScanResult<R> page = scanShard(shard, cursor, scanFunction);
+                    if (!sink.put(page.getResult())) {
+                        return;
+                    }
+                    cursor = page.getStringCursor();
+                } while (!"0".equals(cursor));
+            });
+        }
+        int pagesPerShard = scanPrefetch > 0 ? scanPrefetch : SCAN_PAGES_PER_SHARD;
+        return ConcurrentPageIterator.stream(producers, shards.size() * pagesPerShard,
+                asyncExecutor);
+    }
+
+    /**
+     * one page of a shard, on a connection borrowed for this page only.
+     *
+     * @param shard the connection of the shard in a borrowed resource
+     */
+    private <R> ScanResult<R> scanShard(Function<J, Jedis> shard, String cursor,
+            BiFunction<Jedis, String, ScanResult<R>> scanFunction) {
+        Object pool = poolFactory.get();
+        HostAndPort jedisInfo = null;
+        Object stopWatch = stopWatchStart();
+        long startNanos = System.nanoTime();
+        try (J jedis = getJedis(pool)) {
+            Jedis shardJedis = shard.apply(jedis);
+            jedisInfo = getJedisInfo(shardJedis);
+            ScanResult<R> result = scanFunction.apply(shardJedis, cursor);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, SCAN, null, result.getResult().size());
+            return result;
+        } catch (Throwable e) {
+            exceptionHandler.accept(pool, e);
+            stopWatchStop(stopWatch, startNanos, jedisInfo, SCAN, e);
+            throw propagate(e);
+        }
     }
 
     public Stream<Entry<String, String>> hscan(String key) {
         return hscan(key, new ScanParams());
     }
 
+    /**
+     * close the stream if it may not be fully consumed and scan prefetch is enabled,
+     * see {@link Builder#withScanPrefetch(int)}.
+     */
     @SuppressWarnings("RedundantTypeArguments")
     public Stream<Entry<String, String>> hscan(String key, ScanParams params) {
         // javac cannot infer types...
@@ -333,10 +1821,12 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
                 return ((Jedis) j).hscan(key, c, params);
             } else if (j instanceof ShardedJedis) {
                 return ((ShardedJedis) j).hscan(key, c, params);
+            } else if (j instanceof ClusterJedis) {
+                return ((ClusterJedis) j).getShard(key).hscan(key, c, params);
             } else {
                 throw new UnsupportedOperationException();
             }
-        }, ScanResult::getStringCursor, "0").stream();
+        }, ScanResult::getStringCursor, "0");
     }
 
 
@@ -344,6 +1834,10 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         return zscan(key, new ScanParams());
     }
 
+    /**
+     * close the stream if it may not be fully consumed and scan prefetch is enabled,
+     * see {@link Builder#withScanPrefetch(int)}.
+     */
     @SuppressWarnings("RedundantTypeArguments")
     public Stream<Tuple> zscan(String key, ScanParams params) {
         // javac cannot infer types...
@@ -352,16 +1846,22 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
                 return ((Jedis) j).zscan(key, c, params);
             } else if (j instanceof ShardedJedis) {
                 return ((ShardedJedis) j).zscan(key, c, params);
+            } else if (j instanceof ClusterJedis) {
+                return ((ClusterJedis) j).getShard(key).zscan(key, c, params);
             } else {
                 throw new UnsupportedOperationException();
             }
-        }, ScanResult::getStringCursor, "0").stream();
+        }, ScanResult::getStringCursor, "0");
     }
 
     public Stream<String> sscan(String key) {
         return sscan(key, new ScanParams());
     }
 
+    /**
+     * close the stream if it may not be fully consumed and scan prefetch is enabled,
+     * see {@link Builder#withScanPrefetch(int)}.
+     */
     @SuppressWarnings("RedundantTypeArguments")
     public Stream<String> sscan(String key, ScanParams params) {
         // javac cannot infer types...
@@ -370,30 +1870,90 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
                 return ((Jedis) j).sscan(key, c, params);
             } else if (j instanceof ShardedJedis) {
                 return ((ShardedJedis) j).sscan(key, c, params);
+            } else if (j instanceof ClusterJedis) {
+                return ((ClusterJedis) j).getShard(key).sscan(key, c, params);
             } else {
                 throw new UnsupportedOperationException();
             }
-        }, ScanResult::getStringCursor, "0").stream();
+        }, ScanResult::getStringCursor, "0");
+    }
+
+    /**
+     * scan keys and pipeline {@code function} for every {@code pipelinePartitionSize} of them,
+     * e.g. {@code PipelineBase::get}, {@code PipelineBase::hgetAll} or {@code PipelineBase::type}.
+     * keys removed before their value was read, or in a failed pipeline, are skipped.
+     */
+    public <V> Stream<Entry<String, V>> scanWithValues(ScanParams params,
+            BiFunction<P, String, Response<V>> function) {
+        Stream<String> keys = scan(params);
+        Iterator<List<String>> pages = Iterators.partition(keys.iterator(),
+                pipelinePartitionSize);
+        return StreamSupport.stream(spliteratorUnknownSize(pages, ORDERED | NONNULL), false) //
+                .flatMap(page -> {
+                    Map<String, V> values = pipeline(page, function);
+                    return page.stream() //
+                            .filter(key -> values.get(key) != null) //
+                            .map(key -> immutableEntry(key, values.get(key)));
+                }) //
+                .onClose(keys::close);
     }
 
-    private <K, R> CursorIteratorEx<R, K, ScanResult<R>> scan(
-            BiFunction<J, K, ScanResult<R>> scanFunction,
+    private <K, R> Stream<R> scan(BiFunction<J, K, ScanResult<R>> scanFunction,
             Function<ScanResult<R>, K> cursorExtractor, K initCursor) {
-        return CursorIteratorEx.newBuilder() //
-                .withDataRetriever((K cursor) -> {
-                    Object pool = poolFactory.get();
-                    try (J jedis = getJedis(pool)) {
-                        return scanFunction.apply(jedis, cursor);
-                    } catch (Throwable e) {
-                        exceptionHandler.accept(pool, e);
-                        throw propagate(e);
+        Function<K, ScanResult<R>> dataRetriever = cursor -> {
+            Object pool = poolFactory.get();
+            try (J jedis = getJedis(pool)) {
+                return scanFunction.apply(jedis, cursor);
+            } catch (Throwable e) {
+                exceptionHandler.accept(pool, e);
+                throw propagate(e);
+            }
+        };
+        if (scanPrefetch > 0) {
+            return ConcurrentPageIterator.stream(singletonList(sink -> {
+                K cursor = initCursor;
+                do {
+                    ScanResult<R> page = dataRetriever.apply(cursor);
+                    if (!sink.put(page.getResult())) {
+                        return;
                     }
-                }) //
+                    cursor = cursorExtractor.apply(page);
+                } while (!isScanEnd(cursor));
+            }), scanPrefetch, asyncExecutor);
+        }
+        CursorIteratorEx<R, K, ScanResult<R>> iterator = CursorIteratorEx.newBuilder() //
+                .withDataRetriever(dataRetriever) //
                 .withCursorExtractor(cursorExtractor) //
                 .withDataExtractor((ScanResult<R> s) -> s.getResult().iterator()) //
-                .withEndChecker(s -> "0".equals(s) || s == null) //
+                .withEndChecker(JedisHelper::isScanEnd) //
                 .withInitCursor(initCursor) //
                 .build();
+        return iterator.stream();
+    }
+
+    private static boolean isScanEnd(Object cursor) {
+        return cursor == null || "0".equals(cursor);
+    }
+
+    /**
+     * a {@code (Object target, Object[] args) -> Object} handle per method, built once.
+     * unlike {@link Method#invoke} it neither re-checks access nor wraps exceptions
+     * on every call.
+     */
+    private static MethodHandle invoker(Method method) {
+        MethodHandle invoker = INVOKERS.get(method);
+        if (invoker == null) {
+            try {
+                invoker = publicLookup().unreflect(method) //
+                        .asFixedArity() //
+                        .asSpreader(Object[].class, method.getParameterCount()) //
+                        .asType(INVOKER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw propagate(e);
+            }
+            INVOKERS.putIfAbsent(method, invoker);
+        }
+        return invoker;
     }
 
     private Object stopWatchStart() {
@@ -404,9 +1964,33 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         }
     }
 
-    private void stopWatchStop(Object obj, HostAndPort hostAndPort, String op, Throwable e) {
+    private void stopWatchStop(Object obj, long startNanos, HostAndPort hostAndPort, String op,
+            Throwable e) {
+        stopWatchStop(obj, startNanos, hostAndPort, op, e, 1);
+    }
+
+    private void stopWatchStop(Object obj, long startNanos, HostAndPort hostAndPort, String op,
+            Throwable e, int batchSize) {
+        stopWatchStop(obj, startNanos, hostAndPort, op, e, batchSize, null);
+    }
+
+    /**
+     * @param shardSizes commands per shard connection, metrics are recorded for each shard
+     *        with its own batch size if any, {@code null} if not counted
+     */
+    private void stopWatchStop(Object obj, long startNanos, HostAndPort hostAndPort, String op,
+            Throwable e, int batchSize, Map<Client, int[]> shardSizes) {
+        if (metrics != null) {
+            long nanos = System.nanoTime() - startNanos;
+            if (shardSizes == null || shardSizes.isEmpty()) {
+                metrics.record(hostAndPort, op, nanos, e != null, batchSize);
+            } else {
+                shardSizes.forEach((client, size) -> metrics.record(JedisMetrics.host(client), op,
+                        nanos, e != null, size[0]));
+            }
+        }
         if (stopWatchStop != null) {
-            stopWatchStop.accept(new StopTheWatch<>(obj, hostAndPort, op, e));
+            stopWatchStop.accept(new StopTheWatch<>(obj, hostAndPort, op, e, batchSize));
         }
     }
 
@@ -415,12 +1999,30 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         private Supplier<Object> poolFactory;
         private BiConsumer<O, Throwable> exceptionHandler;
         private int pipelinePartitionSize;
+        private long adaptivePartitionTargetNanos;
+        private int adaptivePartitionMinSize;
+        private int adaptivePartitionMaxSize;
+        private int pipelineParallelism;
+        private Executor pipelineExecutor;
+        private int pipelineRetryAttempts;
+        private long pipelineRetryBudgetNanos;
+        private double hedgePercentile;
+        private Executor asyncExecutor;
+        private int scanPrefetch;
 
         private Supplier<Object> stopWatchStart;
         private Consumer<StopTheWatch<Object>> stopWatchStop;
 
         private Class<?> jedisType;
         private Class<?> binaryJedisType;
+        private Class<?> pipelineType;
+
+        private long autoBatchMaxDelayNanos;
+        private int autoBatchMaxSize;
+        private int autoBatchMaxFlushes;
+        private NearCache nearCache;
+        private JedisMetrics metrics;
+        private HotKeyTracker hotKeys;
 
         public Builder<P, J, O>
                 withExceptionHandler(ThrowableBiConsumer<O, Throwable, Exception> handler) {
@@ -440,6 +2042,168 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
             return this;
         }
 
+        /**
+         * size each partition of {@code pipeline()} so it syncs in about {@code targetLatency},
+         * tuned per call site (each lambda or method reference passed as pipeline function)
+         * from the sync latency and response size it observed.
+         * {@code withPipelinePartitionSize} becomes the size of the first partition.
+         * the sizes picked are reported as {@link StopTheWatch#getBatchSize()}.
+         */
+        public Builder<P, J, O> enableAdaptivePipelinePartition(long targetLatency, TimeUnit unit,
+                int minSize, int maxSize) {
+            checkArgument(targetLatency > 0);
+            checkArgument(minSize > 0 && minSize <= maxSize);
+            this.adaptivePartitionTargetNanos = unit.toNanos(targetLatency);
+            this.adaptivePartitionMinSize = minSize;
+            this.adaptivePartitionMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * send pipeline partitions on separate pooled connections concurrently.
+         * functions and decoders passed to pipelines then run on executor threads concurrently,
+         * see {@link JedisHelper#pipeline(Iterable, BiFunction, Function)}.
+         * the executor only runs blocking socket io, so size it by the connections it may hold.
+         * pipelines called from tasks of the executors of the helper run their partitions on the
+         * calling thread instead, so a bounded executor doesn't wait for itself.
+         */
+        public Builder<P, J, O> enableParallelPipeline(int maxParallelism, Executor executor) {
+            checkArgument(maxParallelism > 0);
+            checkNotNull(executor);
+            this.pipelineParallelism = maxParallelism;
+            this.pipelineExecutor = executor;
+            return this;
+        }
+
+        /**
+         * borrow a connection again for a pipeline partition which failed to borrow one, only
+         * the failed ones, up to {@code maxAttempts} times in total while a {@code pipeline()}
+         * call is within {@code budget}. partitions failed after sending, e.g. by a broken
+         * connection, an error reply or an exception of the function or decoder, are not
+         * retried, as their commands may have run already, except broken connections of
+         * idempotent pipelines, see {@link JedisHelper#pipelineResult(Iterable, BiFunction,
+         * Function, boolean)}.
+         * keys still failed are reported by {@link JedisHelper#pipelineResult}.
+         */
+        public Builder<P, J, O> withPipelineRetry(int maxAttempts, long budget, TimeUnit unit) {
+            checkArgument(maxAttempts > 0);
+            checkArgument(budget > 0);
+            this.pipelineRetryAttempts = maxAttempts;
+            this.pipelineRetryBudgetNanos = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * latency percentile of recent partitions over which {@link JedisHelper#hedgedPipeline}
+         * sends a partition again, default to 95.
+         */
+        public Builder<P, J, O> withHedgePercentile(double percentile) {
+            checkArgument(percentile > 0 && percentile < 100);
+            this.hedgePercentile = percentile;
+            return this;
+        }
+
+        /**
+         * executor for {@code pipelineAsync}/{@code async} calls, scans and hedged pipeline
+         * partitions, default to a pool of the helper of up to 8 daemon threads, the default max
+         * connections of a jedis pool. its tasks block on socket io, so don't pass
+         * {@link ForkJoinPool#commonPool()}. like the parallel pipeline executor, size it by the
+         * connections it may hold. both may be the same executor, pipelines run on either of
+         * them send partitions one by one on the same thread.
+         */
+        public Builder<P, J, O> withAsyncExecutor(Executor executor) {
+            this.asyncExecutor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * fetch up to {@code depth} pages of {@code scan}/{@code hscan}/{@code sscan}/{@code zscan}
+         * ahead on the async executor while the current page is being consumed.
+         * for {@link ShardedJedis}, it's the depth of each shard.
+         *
+         * with prefetch, the streams of these methods hold a producer on the async executor
+         * until they are fully consumed or closed, so close them (e.g. by try-with-resources)
+         * if they may be abandoned. closing stops the producer at its next page, an unclosed
+         * stream stops it only after it's garbage collected.
+         */
+        public Builder<P, J, O> withScanPrefetch(int depth) {
+            checkArgument(depth > 0);
+            this.scanPrefetch = depth;
+            return this;
+        }
+
+        /**
+         * collect commands issued concurrently through {@link JedisHelper#get()} and
+         * {@link JedisHelper#getBinary()} for up to {@code maxDelay}, or until {@code maxBatchSize}
+         * commands arrive, and send them as one pipeline on one connection.
+         * commands without a pipeline counterpart, and blocking ones like {@code BLPOP},
+         * are still sent directly. for {@link ClusterJedis}, commands redirected by
+         * {@code MOVED} or {@code ASK} are sent again one by one, as they would be unbatched.
+         */
+        public Builder<P, J, O> enableAutoBatching(long maxDelay, TimeUnit unit,
+                int maxBatchSize) {
+            return enableAutoBatching(maxDelay, unit, maxBatchSize, DEFAULT_POOL_SIZE);
+        }
+
+        /**
+         * same as {@link #enableAutoBatching(long, TimeUnit, int)}, with up to
+         * {@code maxConcurrentFlushes} batches sent at a time, about the max connections of
+         * the pool. when as many more are waiting, the collecting thread sends the next one
+         * itself, which holds back new batches.
+         */
+        public Builder<P, J, O> enableAutoBatching(long maxDelay, TimeUnit unit,
+                int maxBatchSize, int maxConcurrentFlushes) {
+            checkArgument(maxDelay >= 0);
+            checkArgument(maxBatchSize > 0);
+            checkArgument(maxConcurrentFlushes > 0);
+            this.autoBatchMaxDelayNanos = unit.toNanos(maxDelay);
+            this.autoBatchMaxSize = maxBatchSize;
+            this.autoBatchMaxFlushes = maxConcurrentFlushes;
+            return this;
+        }
+
+        /**
+         * serve {@code get}/{@code hget}/{@code hgetAll} of {@link JedisHelper#get()} and
+         * {@code get} of {@link JedisHelper#getBinary()} from an in-process cache for keys
+         * matching {@code keyFilter} (e.g. {@code Pattern.compile("user_.*").asPredicate()}).
+         *
+         * writes through the same proxies invalidate the keys written, including the other keys
+         * of multi-key commands like {@code RENAME}/{@code MSET}/{@code SUNIONSTORE}.
+         * writes sent by other ways are not seen, including {@code pipeline()} and its variants,
+         * {@code eval}/{@code evalPipeline}, shard bit methods, {@link JedisUtils} and other
+         * clients. use {@link JedisHelper#invalidateNearCache}, a short ttl, or exclude those
+         * keys by {@code keyFilter}.
+         *
+         * @param maximumWeight approximate characters/bytes of cached keys and values
+         */
+        public Builder<P, J, O> enableNearCache(long maximumWeight, long ttl, TimeUnit unit,
+                Predicate<String> keyFilter) {
+            checkArgument(maximumWeight > 0);
+            checkArgument(ttl > 0);
+            this.nearCache = new NearCache(maximumWeight, ttl, unit, keyFilter);
+            return this;
+        }
+
+        /**
+         * record latency, errors and batch size of every command and pipeline per host,
+         * and the wait for pool connections. a {@link JedisMetrics} may be shared by helpers.
+         * a {@link ShardedJedis} pipeline is recorded on each shard it sent commands to,
+         * with the latency of the whole pipeline and the commands of that shard.
+         */
+        public Builder<P, J, O> enableMetrics(JedisMetrics metrics) {
+            this.metrics = checkNotNull(metrics);
+            return this;
+        }
+
+        /**
+         * count sampled keys of commands and pipelines per host, see {@link HotKeyTracker}.
+         * a tracker may be shared by helpers.
+         */
+        public Builder<P, J, O> enableHotKeyTracking(HotKeyTracker tracker) {
+            this.hotKeys = checkNotNull(tracker);
+            return this;
+        }
+
         @SuppressWarnings("unchecked")
         public <T> Builder<P, J, O> enableProfiler(Supplier<T> stopWatchSupplier,
                 Consumer<StopTheWatch<T>> stopTheWatch) {
@@ -451,9 +2215,17 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         @SuppressWarnings("unchecked")
         public JedisHelper<P, J> build() {
             ensure();
+            AdaptivePartitionSizer partitionSizer = adaptivePartitionTargetNanos > 0
+                    ? new AdaptivePartitionSizer(adaptivePartitionTargetNanos,
+                            adaptivePartitionMinSize, adaptivePartitionMaxSize,
+                            pipelinePartitionSize)
+                    : null;
             return new JedisHelper<>(poolFactory, (BiConsumer<Object, Throwable>) exceptionHandler,
-                    pipelinePartitionSize, jedisType, binaryJedisType, stopWatchStart,
-                    stopWatchStop);
+                    pipelinePartitionSize, partitionSizer, pipelineParallelism, pipelineExecutor,
+                    pipelineRetryAttempts, pipelineRetryBudgetNanos, hedgePercentile,
+                    asyncExecutor, scanPrefetch, jedisType, binaryJedisType, pipelineType,
+                    autoBatchMaxDelayNanos, autoBatchMaxSize, autoBatchMaxFlushes, nearCache,
+                    metrics, hotKeys, stopWatchStart, stopWatchStop);
         }
 
         private void ensure() {
@@ -463,6 +2235,22 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
             if (exceptionHandler == null) {
                 exceptionHandler = (t, e) -> {};
             }
+            if (pipelineRetryAttempts <= 0) {
+                pipelineRetryAttempts = 1;
+            }
+            if (hedgePercentile <= 0) {
+                hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+            }
+            if (asyncExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE,
+                        DEFAULT_POOL_SIZE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                        new ThreadFactoryBuilder() //
+                                .setNameFormat("jedis-helper-async-%d") //
+                                .setDaemon(true) //
+                                .build());
+                executor.allowCoreThreadTimeOut(true);
+                asyncExecutor = executor;
+            }
         }
     }
 
@@ -472,13 +2260,15 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         private final String method;
         private final HostAndPort hostAndPort;
         private final Throwable exception;
+        private final int batchSize;
 
         private StopTheWatch(T object, HostAndPort hostAndPort, String method,
-                Throwable exception) {
+                Throwable exception, int batchSize) {
             this.object = object;
             this.method = method;
             this.hostAndPort = hostAndPort;
             this.exception = exception;
+            this.batchSize = batchSize;
         }
 
         public T getObject() {
@@ -496,31 +2286,650 @@ public class JedisHelper<P extends PipelineBase, J extends Closeable> {
         public Throwable getException() {
             return exception;
         }
+
+        /**
+         * @return commands sent in one round-trip, 1 for a single proxied command
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+    }
+
+    /**
+     * commands bound to the connection of {@link #withSession}. the exception handler,
+     * profiler and metrics apply to each command and pipeline partition as usual.
+     */
+    public final class Session {
+
+        private final Object pool;
+        private final J jedis;
+        private final Supplier<JedisCommands> commands = lazy(
+                () -> (JedisCommands) proxy(jedisType));
+        private final Supplier<BinaryJedisCommands> binaryCommands = lazy(
+                () -> (BinaryJedisCommands) proxy(binaryJedisType));
+        private volatile boolean closed;
+
+        private Session(Object pool, J jedis) {
+            this.pool = pool;
+            this.jedis = jedis;
+        }
+
+        public JedisCommands get() {
+            return commands.get();
+        }
+
+        public BinaryJedisCommands getBinary() {
+            return binaryCommands.get();
+        }
+
+        /**
+         * {@code function} is called on the calling thread.
+         */
+        public <K, V> Map<K, V> pipeline(Iterable<K> keys,
+                BiFunction<P, K, Response<V>> function) {
+            return pipeline(keys, function, identity());
+        }
+
+        /**
+         * unlike {@link JedisHelper#pipeline}, a failed partition is thrown,
+         * since the connection is likely unusable for the rest of the session.
+         * partitions run one by one, {@code function} and {@code decoder} are called on the
+         * calling thread.
+         */
+        public <K, V, T> Map<K, T> pipeline(Iterable<K> keys,
+                BiFunction<P, K, Response<V>> function, Function<V, T> decoder) {
+            checkState(!closed, "session is closed.");
+            Map<K, T> result = new HashMap<>();
+            AdaptivePartitionSizer.Site site = partitionSizer == null ? null
+                    : partitionSizer.site(function.getClass());
+            Iterable<List<K>> partition = site == null ? partition(keys, pipelinePartitionSize)
+                    : site.partition(keys);
+            HostAndPort jedisInfo = getJedisInfo(jedis);
+            for (List<K> list : partition) {
+                Object stopWatch = stopWatchStart();
+                long startNanos = System.nanoTime();
+                Map<Client, int[]> shardSizes = shardSizes(jedis);
+                try {
+                    syncPartition(jedis, list, function, decoder, site, shardSizes, result::put);
+                    stopWatchStop(stopWatch, startNanos, jedisInfo, PIPELINE, null, list.size(),
+                            shardSizes);
+                } catch (Throwable e) {
+                    exceptionHandler.accept(pool, e);
+                    stopWatchStop(stopWatch, startNanos, jedisInfo, PIPELINE, e, list.size(),
+                            shardSizes);
+                    throw propagate(e);
+                }
+            }
+            return result;
+        }
+
+        private Object proxy(Class<?> type) {
+            return newProxyInstance(type.getClassLoader(), type.getInterfaces(),
+                    (proxy, method, args) -> invoke(method, args));
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            checkState(!closed, "session is closed.");
+            Object[] arguments = args == null ? EMPTY_ARGS : args;
+            Object stopWatch = stopWatchStart();
+            long startNanos = System.nanoTime();
+            HostAndPort jedisInfo = getJedisInfo(jedis, arguments);
+            recordHotKey(jedisInfo, method.getName(), arguments);
+            try {
+                Object result = jedis instanceof ClusterJedis
+                        ? invokeCluster((ClusterJedis) jedis, invoker(method), arguments)
+                        : (Object) invoker(method).invokeExact((Object) jedis, arguments);
+                stopWatchStop(stopWatch, startNanos, jedisInfo, method.getName(), null);
+                return result;
+            } catch (Throwable e) {
+                exceptionHandler.accept(pool, e);
+                stopWatchStop(stopWatch, startNanos, jedisInfo, method.getName(), e);
+                throw e;
+            } finally {
+                // reads in a session bypass the near cache, but writes still invalidate it
+                if (nearCache != null && arguments.length > 0
+                        && !NearCache.isReadOnly(method.getName())) {
+                    nearCache.invalidateWritten(method.getName(), arguments);
+                }
+            }
+        }
     }
 
     private final class PoolableJedisCommands implements InvocationHandler {
 
+        private final AutoBatcher autoBatcher;
+        private final NearCache nearCache;
+
+        PoolableJedisCommands(AutoBatcher autoBatcher, NearCache nearCache) {
+            this.autoBatcher = autoBatcher;
+            this.nearCache = nearCache;
+        }
+
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (nearCache == null) {
+                return invoke0(method, args);
+            }
+            String command = method.getName();
+            if (NearCache.isReadOnly(command)) {
+                Object cached = nearCache.get(command, args);
+                if (cached != NearCache.MISS) {
+                    return cached;
+                }
+                long epoch = nearCache.epoch(command, args);
+                Object result = invoke0(method, args);
+                nearCache.put(command, args, result, epoch);
+                return result;
+            } else {
+                try {
+                    return invoke0(method, args);
+                } finally {
+                    nearCache.invalidateWritten(command, args);
+                }
+            }
+        }
+
+        private Object invoke0(Method method, Object[] args) throws Throwable {
+            if (autoBatcher != null) {
+                Method pipelineMethod = autoBatcher.pipelineMethod(method);
+                if (pipelineMethod != null) {
+                    return autoBatcher.submit(method, pipelineMethod, args);
+                }
+            }
             Object stopWatch = stopWatchStart();
+            long startNanos = System.nanoTime();
             HostAndPort jedisInfo = null;
             Object pool = poolFactory.get();
+            MethodHandle invoker = invoker(method);
+            Object[] arguments = args == null ? EMPTY_ARGS : args;
             try (J jedis = getJedis(pool)) {
-                jedisInfo = getJedisInfo(jedis);
-                Object result = method.invoke(jedis, args);
-                stopWatchStop(stopWatch, jedisInfo, method.getName(), null);
+                jedisInfo = getJedisInfo(jedis, arguments);
+                recordHotKey(jedisInfo, method.getName(), arguments);
+                Object result = jedis instanceof ClusterJedis
+                        ? invokeCluster((ClusterJedis) jedis, invoker, arguments)
+                        : (Object) invoker.invokeExact((Object) jedis, arguments);
+                stopWatchStop(stopWatch, startNanos, jedisInfo, method.getName(), null);
                 return result;
             } catch (Throwable e) {
-                Throwable exception;
-                if (e instanceof InvocationTargetException) {
-                    exception = ((InvocationTargetException) e).getTargetException();
-                } else {
-                    exception = e;
-                }
-                exceptionHandler.accept(pool, exception);
-                stopWatchStop(stopWatch, jedisInfo, method.getName(), exception);
+                exceptionHandler.accept(pool, e);
+                stopWatchStop(stopWatch, startNanos, jedisInfo, method.getName(), e);
                 throw e;
             }
         }
     }
+
+    /**
+     * collect single commands from concurrent {@link #get()}/{@link #getBinary()} callers
+     * into one pipeline on one connection.
+     */
+    private final class AutoBatcher {
+
+        private final BlockingQueue<BatchedCommand> queue = new LinkedBlockingQueue<>();
+        private final ConcurrentMap<Method, Optional<Method>> pipelineMethods = //
+                new ConcurrentHashMap<>();
+        private final long maxDelayNanos;
+        private final int maxBatchSize;
+        private final Supplier<Thread> collector = lazy(this::startCollector);
+        /**
+         * not the async executor, as callers of commands may be waiting on its threads
+         */
+        private final Supplier<ExecutorService> flusher;
+
+        AutoBatcher(long maxDelayNanos, int maxBatchSize, int maxFlushes) {
+            this.maxDelayNanos = maxDelayNanos;
+            this.maxBatchSize = maxBatchSize;
+            this.flusher = lazy(() -> {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(maxFlushes, maxFlushes, 60,
+                        TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxFlushes),
+                        new ThreadFactoryBuilder() //
+                                .setNameFormat("jedis-helper-auto-batching-flush-%d") //
+                                .setDaemon(true) //
+                                .build(),
+                        new CallerRunsPolicy());
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            });
+        }
+
+        /**
+         * @return the {@link PipelineBase} method with the same signature, or {@code null}
+         *         if the command cannot be pipelined, or may block
+         */
+        Method pipelineMethod(Method method) {
+            return pipelineMethods.computeIfAbsent(method, m -> {
+                if (BLOCKING_COMMANDS.contains(m.getName().toLowerCase())) {
+                    return Optional.empty();
+                }
+                try {
+                    Method pipelineMethod = pipelineType.getMethod(m.getName(),
+                            m.getParameterTypes());
+                    if (pipelineMethod.getReturnType() == Response.class) {
+                        return Optional.of(pipelineMethod);
+                    }
+                } catch (NoSuchMethodException e) {
+                    // not supported in pipeline
+                }
+                return Optional.empty();
+            }).orElse(null);
+        }
+
+        Object submit(Method method, Method pipelineMethod, Object[] args) throws Throwable {
+            collector.get();
+            BatchedCommand command = new BatchedCommand(method, pipelineMethod, args);
+            queue.add(command);
+            try {
+                return command.future.join();
+            } catch (CompletionException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Thread startCollector() {
+            Thread thread = new ThreadFactoryBuilder() //
+                    .setNameFormat("jedis-helper-auto-batching-%d") //
+                    .setDaemon(true) //
+                    .build() //
+                    .newThread(this::collect);
+            thread.start();
+            return thread;
+        }
+
+        private void collect() {
+            while (true) {
+                try {
+                    List<BatchedCommand> batch = new ArrayList<>(maxBatchSize);
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    while (batch.size() < maxBatchSize) {
+                        BatchedCommand command = queue.poll(deadline - System.nanoTime(),
+                                NANOSECONDS);
+                        if (command == null) {
+                            break;
+                        }
+                        batch.add(command);
+                    }
+                    flusher.get().execute(() -> flush(batch));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable e) {
+                    logger.error("", e);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void flush(List<BatchedCommand> batch) {
+            Object pool = poolFactory.get();
+            HostAndPort jedisInfo = null;
+            Object stopWatch = stopWatchStart();
+            long startNanos = System.nanoTime();
+            Map<Client, int[]> shardSizes = null;
+            try (J jedis = getJedis(pool)) {
+                jedisInfo = getJedisInfo(jedis);
+                shardSizes = shardSizes(jedis);
+                P pipeline = pipeline(jedis, shardSizes);
+                try {
+                    for (BatchedCommand command : batch) {
+                        command.response = (Response<Object>) (Object) invoker(
+                                command.pipelineMethod).invokeExact((Object) pipeline,
+                                        command.args);
+                    }
+                    syncPipeline(pipeline);
+                } catch (Throwable e) {
+                    discard(jedis, pipeline);
+                    throw e;
+                }
+                stopWatchStop(stopWatch, startNanos, jedisInfo, AUTO_BATCH, null, batch.size(),
+                        shardSizes);
+                complete(jedis, pool, batch);
+            } catch (Throwable e) {
+                exceptionHandler.accept(pool, e);
+                stopWatchStop(stopWatch, startNanos, jedisInfo, AUTO_BATCH, e, batch.size(),
+                        shardSizes);
+                batch.forEach(command -> command.future.completeExceptionally(e));
+            }
+        }
+
+        /**
+         * for {@link ClusterJedis}, a command redirected by {@code MOVED} or {@code ASK} is
+         * run again by itself, following redirections as an unbatched one.
+         */
+        private void complete(J jedis, Object pool, List<BatchedCommand> batch) {
+            for (BatchedCommand command : batch) {
+                try {
+                    Object result;
+                    try {
+                        result = command.response.get();
+                    } catch (JedisRedirectionException e) {
+                        if (!(jedis instanceof ClusterJedis)) {
+                            throw e;
+                        }
+                        ((ClusterJedis) jedis).redirected(e);
+                        result = invokeCluster((ClusterJedis) jedis, invoker(command.method),
+                                command.args);
+                    }
+                    command.future.complete(result);
+                } catch (Throwable e) {
+                    exceptionHandler.accept(pool, e);
+                    command.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * records keys of commands to {@link HotKeyTracker}.
+     */
+    private static final class TrackedPipeline extends Pipeline {
+
+        private final HotKeyTracker hotKeys;
+
+        TrackedPipeline(Client client, HotKeyTracker hotKeys) {
+            this.hotKeys = hotKeys;
+            setClient(client);
+        }
+
+        @Override
+        protected Client getClient(String key) {
+            return record(super.getClient(key), key);
+        }
+
+        @Override
+        protected Client getClient(byte[] key) {
+            return record(super.getClient(key), key);
+        }
+
+        private Client record(Client client, Object key) {
+            if (hotKeys.sample()) {
+                hotKeys.record(client, PIPELINE, key);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * records keys of commands to {@link HotKeyTracker}, with the host of their shards,
+     * and counts commands per shard connection.
+     */
+    private static final class TrackedShardedPipeline extends ShardedJedisPipeline {
+
+        private final HotKeyTracker hotKeys;
+        private final Map<Client, int[]> shardSizes;
+
+        /**
+         * @param hotKeys {@code null} if not tracked
+         * @param shardSizes {@code null} if not counted
+         */
+        TrackedShardedPipeline(ShardedJedis jedis, HotKeyTracker hotKeys,
+                Map<Client, int[]> shardSizes) {
+            this.hotKeys = hotKeys;
+            this.shardSizes = shardSizes;
+            setShardedJedis(jedis);
+        }
+
+        @Override
+        protected Client getClient(String key) {
+            return record(super.getClient(key), key);
+        }
+
+        @Override
+        protected Client getClient(byte[] key) {
+            return record(super.getClient(key), key);
+        }
+
+        private Client record(Client client, Object key) {
+            if (shardSizes != null) {
+                shardSizes.computeIfAbsent(client, c -> new int[1])[0]++;
+            }
+            if (hotKeys != null && hotKeys.sample()) {
+                hotKeys.record(client, PIPELINE, key);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * a pipeline partition failed before any command was sent, so it's safe to retry.
+     */
+    private static final class UnsentPartitionException extends JedisException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsentPartitionException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static final class BatchedCommand {
+
+        private final Method method;
+        private final Method pipelineMethod;
+        private final Object[] args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private Response<Object> response;
+
+        BatchedCommand(Method method, Method pipelineMethod, Object[] args) {
+            this.method = method;
+            this.pipelineMethod = pipelineMethod;
+            this.args = args == null ? EMPTY_ARGS : args;
+        }
+    }
+
+    private final class ShardBitIterator implements PrimitiveIterator.OfLong {
+
+        private final String keyPrefix;
+        private final int keyHashRange;
+        private final long start;
+        private final long end;
+        private final long lastShard;
+
+        private long shard;
+        private long batchEnd;
+        private Map<Long, byte[]> batch;
+        private CompletableFuture<Map<Long, byte[]>> readAhead;
+
+        private byte[] bytes;
+        private long base;
+        private int byteIndex;
+        private long word;
+        private long wordBase;
+
+        private long next;
+        private boolean hasNext;
+        private boolean finished;
+
+        ShardBitIterator(String keyPrefix, int keyHashRange, long start, long end) {
+            checkArgument(keyHashRange > 0);
+            this.keyPrefix = keyPrefix;
+            this.keyHashRange = keyHashRange;
+            this.start = start;
+            this.end = end;
+            this.lastShard = end / keyHashRange;
+            this.shard = start / keyHashRange - 1;
+            this.batchEnd = shard;
+            this.finished = start > end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!hasNext && !finished) {
+                hasNext = advance();
+                finished = !hasNext;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = false;
+            return next;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            if (hasNext) {
+                hasNext = false;
+                action.accept(next);
+            }
+            if (finished) {
+                return;
+            }
+            do {
+                while (true) {
+                    while (word != 0) {
+                        int bit = numberOfLeadingZeros(word);
+                        word &= ~(MIN_VALUE >>> bit);
+                        long value = wordBase + bit;
+                        if (value > end) {
+                            finished = true;
+                            return;
+                        }
+                        if (value >= start) {
+                            action.accept(value);
+                        }
+                    }
+                    if (!nextWord()) {
+                        break;
+                    }
+                }
+            } while (nextKey());
+            finished = true;
+        }
+
+        private boolean advance() {
+            while (true) {
+                while (word == 0) {
+                    if (!nextWord() && !nextKey()) {
+                        return false;
+                    }
+                }
+                int bit = numberOfLeadingZeros(word);
+                word &= ~(MIN_VALUE >>> bit);
+                long value = wordBase + bit;
+                if (value > end) {
+                    return false;
+                }
+                if (value >= start) {
+                    next = value;
+                    return true;
+                }
+            }
+        }
+
+        private boolean nextWord() {
+            if (bytes == null || byteIndex >= bytes.length) {
+                return false;
+            }
+            word = RedisBitmap.readWord(bytes, byteIndex);
+            wordBase = base + byteIndex * 8L;
+            byteIndex += 8;
+            return true;
+        }
+
+        private boolean nextKey() {
+            if (shard >= lastShard) {
+                return false;
+            }
+            shard++;
+            if (shard > batchEnd) {
+                if (readAhead == null) {
+                    readAhead = fetch(shard);
+                }
+                batch = readAhead.join();
+                batchEnd = batchEnd(shard);
+                readAhead = batchEnd < lastShard ? fetch(batchEnd + 1) : null;
+            }
+            if (!batch.containsKey(shard)) {
+                throw new JedisException("fail to get shard key:" + shardKey(shard));
+            }
+            bytes = batch.get(shard);
+            base = shard * keyHashRange;
+            // skip whole words before start
+            byteIndex = base < start ? (int) ((start - base) / Long.SIZE) * 8 : 0;
+            word = 0;
+            return true;
+        }
+
+        private long batchEnd(long from) {
+            return Math.min(from + pipelinePartitionSize - 1, lastShard);
+        }
+
+        private String shardKey(long shardIndex) {
+            return keyPrefix + "_" + shardIndex;
+        }
+
+        private CompletableFuture<Map<Long, byte[]>> fetch(long from) {
+            List<Long> shards = LongStream.rangeClosed(from, batchEnd(from)).boxed()
+                    .collect(toList());
+            return supplyAsyncNested(
+                    () -> pipeline(shards, (p, s) -> p.get(encode(shardKey(s)))), asyncExecutor);
+        }
+    }
+
+    private static final class ShardSegment {
+
+        private final long shard;
+        private final long lo;
+        private final long hi;
+        private final boolean full;
+
+        ShardSegment(long shard, long lo, long hi, boolean full) {
+            this.shard = shard;
+            this.lo = lo;
+            this.hi = hi;
+            this.full = full;
+        }
+
+        String key(String keyPrefix) {
+            return keyPrefix + "_" + shard;
+        }
+    }
+
+    /**
+     * bits of one shard key, accessed by one script.
+     */
+    private static final class ShardBitGroup {
+
+        private static final RedisScript GET_BITS = RedisScript.of("local r = {} " //
+                + "for i = 1, #ARGV do r[i] = redis.call('GETBIT', KEYS[1], ARGV[i]) end " //
+                + "return r");
+        private static final RedisScript SET_BITS = RedisScript.of("local r = {} " //
+                + "for i = 2, #ARGV do " //
+                + "r[i - 1] = redis.call('SETBIT', KEYS[1], ARGV[i], ARGV[1]) end " //
+                + "return r");
+
+        private final String key;
+        private final int[] indexes;
+
+        ShardBitGroup(String key, int[] indexes) {
+            this.key = key;
+            this.indexes = indexes;
+        }
+
+        byte[][] params(long[] bits, int keyHashRange, Boolean value) {
+            int offset = value == null ? 1 : 2;
+            byte[][] params = new byte[indexes.length + offset][];
+            params[0] = encode(key);
+            if (value != null) {
+                params[1] = toByteArray(value ? 1 : 0);
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                params[i + offset] = toByteArray(bits[indexes[i]] % keyHashRange);
+            }
+            return params;
+        }
+
+        void collect(Object result, BitSet bitSet) {
+            List<?> values = (List<?>) result;
+            for (int i = 0; i < indexes.length; i++) {
+                if (((Long) values.get(i)) != 0) {
+                    bitSet.set(indexes[i]);
+                }
+            }
+        }
+    }
 }
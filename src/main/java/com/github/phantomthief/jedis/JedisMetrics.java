@@ -0,0 +1,293 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.net.HostAndPort;
+
+import redis.clients.jedis.Client;
+
+/**
+ * latency histograms and counters per redis host and command, see
+ * {@link JedisHelper.Builder#enableMetrics(JedisMetrics)}.
+ *
+ * recording only updates atomic counters preallocated on the first call of a (host, command),
+ * so it neither locks nor allocates. a snapshot is not atomic across counters,
+ * which is fine for periodic export.
+ */
+public final class JedisMetrics {
+
+    /**
+     * host of commands not bound to a single connection, e.g. cluster pipelines.
+     */
+    public static final HostAndPort UNKNOWN_HOST = HostAndPort.fromHost("unknown");
+
+    private static final LoadingCache<Client, HostAndPort> HOSTS = CacheBuilder.newBuilder() //
+            .weakKeys() //
+            .build(CacheLoader.from(client -> HostAndPort.fromParts(client.getHost(),
+                    client.getPort())));
+
+    private final ConcurrentMap<HostAndPort, ConcurrentMap<String, CommandRecorder>> recorders = //
+            new ConcurrentHashMap<>();
+    private final Histogram borrowWait = new Histogram();
+
+    /**
+     * @return host of a connection, built once while the connection is reachable
+     */
+    static HostAndPort host(Client client) {
+        return HOSTS.getUnchecked(client);
+    }
+
+    void record(HostAndPort host, String command, long nanos, boolean error, int batchSize) {
+        if (host == null) {
+            host = UNKNOWN_HOST;
+        }
+        ConcurrentMap<String, CommandRecorder> commands = recorders.get(host);
+        if (commands == null) {
+            commands = recorders.computeIfAbsent(host, h -> new ConcurrentHashMap<>());
+        }
+        CommandRecorder recorder = commands.get(command);
+        if (recorder == null) {
+            recorder = commands.computeIfAbsent(command, c -> new CommandRecorder());
+        }
+        recorder.latency.record(nanos);
+        recorder.batchSize.record(batchSize);
+        if (error) {
+            recorder.errors.incrementAndGet();
+        }
+    }
+
+    void recordBorrow(long nanos) {
+        borrowWait.record(nanos);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * take a snapshot and start over, values recorded concurrently go to either side.
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    public void reset() {
+        snapshot(true);
+    }
+
+    private Snapshot snapshot(boolean reset) {
+        Map<HostAndPort, Map<String, CommandSnapshot>> commands = new HashMap<>();
+        recorders.forEach((host, map) -> {
+            Map<String, CommandSnapshot> hostCommands = new HashMap<>();
+            map.forEach((command, recorder) -> hostCommands.put(command,
+                    new CommandSnapshot(recorder.latency.snapshot(reset),
+                            recorder.batchSize.snapshot(reset),
+                            reset ? recorder.errors.getAndSet(0) : recorder.errors.get())));
+            commands.put(host, unmodifiableMap(hostCommands));
+        });
+        return new Snapshot(unmodifiableMap(commands), borrowWait.snapshot(reset));
+    }
+
+    private static final class CommandRecorder {
+
+        private final Histogram latency = new Histogram();
+        private final Histogram batchSize = new Histogram();
+        private final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * log-linear buckets, 8 per power of two, so a value is known within 12.5%.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucket(value));
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        HistogramSnapshot snapshot(boolean reset) {
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            }
+            return new HistogramSnapshot(snapshot, reset ? sum.getAndSet(0) : sum.get(),
+                    reset ? max.getAndSet(0) : max.get());
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final Map<HostAndPort, Map<String, CommandSnapshot>> commands;
+        private final HistogramSnapshot borrowWait;
+
+        private Snapshot(Map<HostAndPort, Map<String, CommandSnapshot>> commands,
+                HistogramSnapshot borrowWait) {
+            this.commands = commands;
+            this.borrowWait = borrowWait;
+        }
+
+        /**
+         * @return host -> command ({@code "get"}, {@code "pipeline"}, ...) -> metrics
+         */
+        public Map<HostAndPort, Map<String, CommandSnapshot>> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return nanos waited to borrow a connection from the pool
+         */
+        public HistogramSnapshot getBorrowWait() {
+            return borrowWait;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{commands=" + commands + ", borrowWait=" + borrowWait + "}";
+        }
+    }
+
+    public static final class CommandSnapshot {
+
+        private final HistogramSnapshot latency;
+        private final HistogramSnapshot batchSize;
+        private final long errors;
+
+        private CommandSnapshot(HistogramSnapshot latency, HistogramSnapshot batchSize,
+                long errors) {
+            this.latency = latency;
+            this.batchSize = batchSize;
+            this.errors = errors;
+        }
+
+        /**
+         * @return nanos, including borrowing the connection
+         */
+        public HistogramSnapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return commands sent per call, 1 for single commands
+         */
+        public HistogramSnapshot getBatchSize() {
+            return batchSize;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return "{latency=" + latency + ", batchSize=" + batchSize + ", errors=" + errors
+                    + "}";
+        }
+    }
+
+    public static final class HistogramSnapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private HistogramSnapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile 0-100
+         * @return upper bound of the bucket holding the value, 0 if empty
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long upper = i + 1 < counts.length ? Histogram.lowerBound(i + 1) - 1
+                            : Long.MAX_VALUE;
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + (long) getMean() + ", p50="
+                    + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max="
+                    + max + "}";
+        }
+    }
+}
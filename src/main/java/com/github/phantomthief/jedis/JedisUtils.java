@@ -3,28 +3,38 @@
  */
 package com.github.phantomthief.jedis;
 
-import static com.carrotsearch.hppc.Containers.DEFAULT_EXPECTED_ELEMENTS;
 import static com.google.common.collect.Iterables.partition;
 import static com.google.common.collect.Maps.difference;
 import static java.lang.Integer.MAX_VALUE;
+import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toMap;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 
-import com.carrotsearch.hppc.IntHashSet;
 import com.carrotsearch.hppc.IntSet;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.MapDifference.ValueDifference;
 
 import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisException;
 
 /**
  * @author w.vela
@@ -40,39 +50,85 @@ public final class JedisUtils {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @see RedisBitmap#toIntSet()
+     */
     public static IntSet toIntSet(final byte[] bytes) {
-        IntSet bits = new IntHashSet(bytes == null ? 0 : DEFAULT_EXPECTED_ELEMENTS);
-        if (bytes != null && bytes.length > 0) {
-            for (int i = 0; i < (bytes.length * 8); i++) {
-                if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
-                    bits.add(i);
-                }
-            }
-        }
-        return bits;
+        return RedisBitmap.wrap(bytes).toIntSet();
     }
 
-    /*public static <T> boolean syncHashKey(JedisCommands jedis, T key,
-            Function<T, String> keyGenerator, Function<T, Map<String, String>> dataBuilder,
+    /**
+     * @see #syncHashKeys(JedisHelper, Iterable, Function, Function, boolean)
+     */
+    public static <T, P extends PipelineBase> boolean syncHashKey(JedisHelper<P, ?> helper,
+            T key, Function<T, String> keyGenerator, Function<T, Map<String, String>> dataBuilder,
             boolean appendOnly) {
-        String realKey = keyGenerator.apply(key);
-        boolean changed = false;
-        if (jedis.exists(realKey)) {
-            Map<String, String> raw = dataBuilder.apply(key);
-            Map<String, String> exists = jedis.hgetAll(realKey);
-        }
-    }*/
+        return syncHashKeys(helper, singleton(key), keyGenerator, dataBuilder, appendOnly)
+                .isChanged();
+    }
 
-    public static BitSet toBitSet(final byte[] bytes) {
-        BitSet bits = new BitSet();
-        if (bytes != null && bytes.length > 0) {
-            for (int i = 0; i < (bytes.length * 8); i++) {
-                if ((bytes[i / 8] & (1 << (7 - (i % 8)))) != 0) {
-                    bits.set(i);
+    /**
+     * existing keys are checked by pipelined {@code EXISTS}, then each one is walked by
+     * {@code HSCAN} and diffed field by field against its source. only changed fields are
+     * sent, as pipelined {@code HMSET}/{@code HDEL} of at most {@value #ZADD_MAX_SPLIT_COUNT}
+     * fields, batched across keys.
+     *
+     * @param appendOnly keep fields missing in the source instead of deleting them
+     */
+    public static <T, P extends PipelineBase> SyncResult syncHashKeys(JedisHelper<P, ?> helper,
+            Iterable<T> keys, Function<T, String> keyGenerator,
+            Function<T, Map<String, String>> dataBuilder, boolean appendOnly) {
+        SyncResult result = new SyncResult();
+        PipelineBatcher<P> batcher = new PipelineBatcher<>(helper, keyGenerator.getClass());
+        forEachExistKey(helper, keys, keyGenerator, key -> {
+            String realKey = keyGenerator.apply(key);
+            Map<String, String> raw = dataBuilder.apply(key);
+            Set<String> found = new HashSet<>();
+            Chunker<String, String> sets = new Chunker<>(
+                    chunk -> batcher.add(p -> p.hmset(realKey, chunk)));
+            Chunker<String, Void> removes = new Chunker<>(chunk -> batcher
+                    .add(p -> p.hdel(realKey, chunk.keySet().toArray(new String[0]))));
+            long added = 0, removed = 0, updated = 0;
+            try (Stream<Entry<String, String>> scan = helper.hscan(realKey)) {
+                Iterator<Entry<String, String>> existing = scan.iterator();
+                while (existing.hasNext()) {
+                    Entry<String, String> entry = existing.next();
+                    String field = entry.getKey();
+                    String value = raw.get(field);
+                    if (value == null) {
+                        if (!appendOnly) {
+                            removes.put(field, null);
+                            removed++;
+                        }
+                    } else if (found.add(field) && !value.equals(entry.getValue())) {
+                        sets.put(field, value);
+                        updated++;
+                    }
                 }
             }
-        }
-        return bits;
+            for (Entry<String, String> entry : raw.entrySet()) {
+                if (!found.contains(entry.getKey())) {
+                    sets.put(entry.getKey(), entry.getValue());
+                    added++;
+                }
+            }
+            sets.finish();
+            removes.finish();
+            result.add(added, removed, updated);
+            if (added + removed + updated > 0) {
+                logger.info("real key:{} synced, added:{}, removed:{}, updated:{}", realKey,
+                        added, removed, updated);
+            }
+        });
+        batcher.flush();
+        return result;
+    }
+
+    /**
+     * @see RedisBitmap#toBitSet()
+     */
+    public static BitSet toBitSet(final byte[] bytes) {
+        return RedisBitmap.wrap(bytes).toBitSet();
     }
 
     public static <T> boolean syncSortedSetKey(JedisCommands jedis, T key,
@@ -119,4 +175,190 @@ public final class JedisUtils {
         }
         return changed;
     }
+
+    /**
+     * streaming form of {@link #syncSortedSetKey(JedisCommands, Object, Function, Function)}.
+     *
+     * existing keys are checked by pipelined {@code EXISTS}, then each one is walked by
+     * {@code ZSCAN} and diffed page by page against its source, so only the source is held in
+     * memory. changes are sent as pipelined {@code ZADD}/{@code ZREM} of at most
+     * {@value #ZADD_MAX_SPLIT_COUNT} members, batched across keys.
+     *
+     * @return counts of synced keys and changed members, a member reported twice by
+     *         {@code ZSCAN} during rehashing may be counted twice
+     */
+    public static <T, P extends PipelineBase> SyncResult syncSortedSetKeys(
+            JedisHelper<P, ?> helper, Iterable<T> keys, Function<T, String> keyGenerator,
+            Function<T, Map<String, Double>> dataBuilder) {
+        SyncResult result = new SyncResult();
+        PipelineBatcher<P> batcher = new PipelineBatcher<>(helper, keyGenerator.getClass());
+        forEachExistKey(helper, keys, keyGenerator, key -> {
+            String realKey = keyGenerator.apply(key);
+            Map<String, Double> raw = dataBuilder.apply(key);
+            Set<String> found = new HashSet<>();
+            Chunker<String, Double> adds = new Chunker<>(
+                    chunk -> batcher.add(p -> p.zadd(realKey, chunk)));
+            Chunker<String, Void> removes = new Chunker<>(chunk -> batcher
+                    .add(p -> p.zrem(realKey, chunk.keySet().toArray(new String[0]))));
+            long added = 0, removed = 0, updated = 0;
+            try (Stream<Tuple> scan = helper.zscan(realKey)) {
+                Iterator<Tuple> existing = scan.iterator();
+                while (existing.hasNext()) {
+                    Tuple tuple = existing.next();
+                    String member = tuple.getElement();
+                    Double score = raw.get(member);
+                    if (score == null) {
+                        removes.put(member, null);
+                        removed++;
+                    } else if (found.add(member) && score != tuple.getScore()) {
+                        adds.put(member, score);
+                        updated++;
+                    }
+                }
+            }
+            for (Entry<String, Double> entry : raw.entrySet()) {
+                if (!found.contains(entry.getKey())) {
+                    adds.put(entry.getKey(), entry.getValue());
+                    added++;
+                }
+            }
+            adds.finish();
+            removes.finish();
+            result.add(added, removed, updated);
+            if (added + removed + updated > 0) {
+                logger.info("real key:{} synced, added:{}, removed:{}, updated:{}", realKey,
+                        added, removed, updated);
+            }
+        });
+        batcher.flush();
+        return result;
+    }
+
+    /**
+     * check keys by pipelined {@code EXISTS}, one partition at a time. duplicates in a
+     * partition are checked and consumed once.
+     */
+    private static <T, P extends PipelineBase> void forEachExistKey(JedisHelper<P, ?> helper,
+            Iterable<T> keys, Function<T, String> keyGenerator, Consumer<T> consumer) {
+        for (List<T> list : partition(keys, helper.getPipelinePartitionSize())) {
+            Set<T> distinct = new LinkedHashSet<>(list);
+            Map<T, Boolean> exists = helper.pipeline(distinct,
+                    (p, key) -> p.exists(keyGenerator.apply(key)));
+            if (exists.size() < distinct.size()) {
+                throw new JedisException("fail to check keys exist.");
+            }
+            for (T key : distinct) {
+                if (exists.get(key)) {
+                    consumer.accept(key);
+                }
+            }
+        }
+    }
+
+    public static final class SyncResult {
+
+        private long keys;
+        private long added;
+        private long removed;
+        private long updated;
+
+        private SyncResult() {
+        }
+
+        private void add(long added, long removed, long updated) {
+            this.keys++;
+            this.added += added;
+            this.removed += removed;
+            this.updated += updated;
+        }
+
+        /**
+         * @return count of existing keys that were synced
+         */
+        public long getKeys() {
+            return keys;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getUpdated() {
+            return updated;
+        }
+
+        public boolean isChanged() {
+            return added + removed + updated > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "SyncResult{keys=" + keys + ", added=" + added + ", removed=" + removed
+                    + ", updated=" + updated + "}";
+        }
+    }
+
+    /**
+     * collect entries of one key into chunks of at most {@value #ZADD_MAX_SPLIT_COUNT}.
+     */
+    private static final class Chunker<K, V> {
+
+        private final Consumer<Map<K, V>> sealer;
+        private Map<K, V> chunk = new HashMap<>();
+
+        Chunker(Consumer<Map<K, V>> sealer) {
+            this.sealer = sealer;
+        }
+
+        void put(K key, V value) {
+            chunk.put(key, value);
+            if (chunk.size() >= ZADD_MAX_SPLIT_COUNT) {
+                finish();
+            }
+        }
+
+        void finish() {
+            if (!chunk.isEmpty()) {
+                sealer.accept(chunk);
+                chunk = new HashMap<>();
+            }
+        }
+    }
+
+    /**
+     * send commands of many keys in pipelines of {@code pipelinePartitionSize}.
+     */
+    private static final class PipelineBatcher<P extends PipelineBase> {
+
+        private final JedisHelper<P, ?> helper;
+        private final Object callSite;
+        private List<Function<P, Response<?>>> pending = new ArrayList<>();
+
+        /**
+         * @param callSite key of adaptive partitioning, e.g. the class of the caller's key
+         *        generator
+         */
+        PipelineBatcher(JedisHelper<P, ?> helper, Object callSite) {
+            this.helper = helper;
+            this.callSite = callSite;
+        }
+
+        void add(Function<P, Response<?>> op) {
+            pending.add(op);
+            if (pending.size() >= helper.getPipelinePartitionSize()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!pending.isEmpty()) {
+                helper.pipelineOps(pending, callSite);
+                pending = new ArrayList<>();
+            }
+        }
+    }
 }
@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a percentile of the latest {@link #SAMPLES} latencies, recomputed every
+ * {@link #REFRESH_INTERVAL} records instead of on each read.
+ */
+final class LatencyTracker {
+
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final int REFRESH_INTERVAL = 64;
+
+    private final double percentile;
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+    private volatile long threshold = Long.MAX_VALUE;
+
+    LatencyTracker(double percentile) {
+        checkArgument(percentile > 0 && percentile < 100);
+        this.percentile = percentile;
+    }
+
+    void record(long nanos) {
+        long n = count.getAndIncrement() + 1;
+        samples.set((int) ((n - 1) % SAMPLES), nanos);
+        if (n == MIN_SAMPLES || (n > MIN_SAMPLES && n % REFRESH_INTERVAL == 0)) {
+            refresh((int) Math.min(n, SAMPLES));
+        }
+    }
+
+    /**
+     * @return {@link Long#MAX_VALUE} until there are enough samples
+     */
+    long threshold() {
+        return threshold;
+    }
+
+    private void refresh(int size) {
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        threshold = sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static redis.clients.util.SafeEncoder.encode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * in-process cache for {@code GET}/{@code HGET}/{@code HGETALL} results, one entry per redis key.
+ *
+ * entries are immutable and replaced on every fill, so the weigher always sees the current size.
+ * each cached reply expires on its own, ttl after it was loaded, refilling another reply of the
+ * same key doesn't extend it.
+ *
+ * invalidations are counted on {@link #STRIPES} counters by key hash. a fill is checked again
+ * after it's put, and removed if the counter of its key moved since its value started loading.
+ * an invalidation after the check removes it by itself, so a read racing with a write can never
+ * leave a stale value, and writes to other keys only drop a fill on a hash collision.
+ *
+ * only writes through the command proxies are seen, see {@link #invalidateWritten}.
+ */
+final class NearCache {
+
+    static final Object MISS = new Object();
+    private static final Object NULL = new Object();
+
+    private static final int STRING_GET = 1;
+    private static final int BINARY_GET = 2;
+    private static final int HGET = 3;
+    private static final int HGETALL = 4;
+
+    private static final int STRIPES = 1024;
+
+    /**
+     * commands that never modify their key, so they don't need to invalidate it.
+     */
+    private static final ImmutableSet<String> READ_ONLY_COMMANDS = ImmutableSet.of("get", "hget",
+            "hgetAll", "hmget", "hexists", "hlen", "hkeys", "hvals", "hscan", "exists", "type",
+            "ttl", "pttl", "strlen", "getrange", "substr", "getbit", "bitcount", "bitpos", "echo",
+            "llen", "lrange", "lindex", "scard", "smembers", "sismember", "srandmember", "sscan",
+            "zcard", "zscore", "zrank", "zrevrank", "zcount", "zlexcount", "zscan", "mget",
+            "pfcount", "dump");
+
+    /**
+     * writes which may change keys other than the first argument.
+     */
+    private static final ImmutableSet<String> MULTI_KEY_WRITES = ImmutableSet.of("del", "rename",
+            "renamenx", "smove", "rpoplpush", "brpoplpush", "blpop", "brpop", "sinterstore",
+            "sunionstore", "sdiffstore", "zinterstore", "zunionstore", "pfmerge", "bitop", "sort");
+
+    private final Cache<String, Entry> cache;
+    private final Predicate<String> keyFilter;
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+    private final long ttlNanos;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    NearCache(long maximumWeight, long ttl, TimeUnit unit, Predicate<String> keyFilter) {
+        this.keyFilter = checkNotNull(keyFilter);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.cache = CacheBuilder.newBuilder() //
+                .maximumWeight(maximumWeight) //
+                .<String, Entry> weigher((key, entry) -> key.length() + entry.weight) //
+                .expireAfterWrite(ttl, unit) //
+                .recordStats() //
+                .build();
+    }
+
+    static boolean isReadOnly(String command) {
+        return READ_ONLY_COMMANDS.contains(command) || command.startsWith("zrange")
+                || command.startsWith("zrevrange");
+    }
+
+    /**
+     * @return the invalidation counter of the key the command reads, to pass to {@link #put}
+     */
+    long epoch(String command, Object[] args) {
+        return type(command, args) == 0 ? 0 : invalidations.get(stripe(key(args[0])));
+    }
+
+    /**
+     * @return cached value, or {@link #MISS} if not cached or not a cacheable command
+     */
+    Object get(String command, Object[] args) {
+        int type = type(command, args);
+        if (type == 0) {
+            return MISS;
+        }
+        String key = key(args[0]);
+        if (!keyFilter.test(key)) {
+            return MISS;
+        }
+        Entry entry = cache.getIfPresent(key);
+        Object value = entry == null ? MISS : entry.get(type, args, System.nanoTime());
+        if (value == MISS) {
+            missCount.increment();
+            return MISS;
+        }
+        hitCount.increment();
+        if (value == NULL) {
+            return null;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        } else if (value instanceof Map) {
+            return new HashMap<>((Map<?, ?>) value);
+        } else {
+            return value;
+        }
+    }
+
+    void put(String command, Object[] args, Object value, long epoch) {
+        int type = type(command, args);
+        if (type == 0) {
+            return;
+        }
+        String key = key(args[0]);
+        if (!keyFilter.test(key)) {
+            return;
+        }
+        Object copy;
+        if (value == null) {
+            copy = NULL;
+        } else if (value instanceof byte[]) {
+            copy = ((byte[]) value).clone();
+        } else if (value instanceof Map) {
+            copy = new HashMap<>((Map<?, ?>) value);
+        } else {
+            copy = value;
+        }
+        int stripe = stripe(key);
+        if (epoch != invalidations.get(stripe)) {
+            return;
+        }
+        Entry entry = cache.getIfPresent(key);
+        long now = System.nanoTime();
+        cache.put(key, (entry == null ? Entry.EMPTY : entry).with(type, args,
+                new Slot(copy, now + ttlNanos), now));
+        if (epoch != invalidations.get(stripe)) {
+            // the invalidation may have run before the put
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * invalidate keys written by a command: the first argument, and for commands of
+     * {@link #MULTI_KEY_WRITES} all arguments of keys, e.g. the destination of {@code RENAME}.
+     * for {@code MSET}/{@code MSETNX}, the keys among keys and values.
+     */
+    void invalidateWritten(String command, Object[] args) {
+        if (args == null || args.length == 0) {
+            return;
+        }
+        if ((command.equals("mset") || command.equals("msetnx"))
+                && args[0] instanceof Object[]) {
+            Object[] keysValues = (Object[]) args[0];
+            for (int i = 0; i < keysValues.length; i += 2) {
+                invalidate(keysValues[i]);
+            }
+        } else if (MULTI_KEY_WRITES.contains(command)) {
+            for (Object arg : args) {
+                invalidate(arg);
+            }
+        } else {
+            invalidate(args[0]);
+        }
+    }
+
+    /**
+     * @param key {@code String}, {@code byte[]} or an array of them, others are ignored
+     */
+    void invalidate(Object key) {
+        if (key instanceof String || key instanceof byte[]) {
+            String k = key(key);
+            if (keyFilter.test(k)) {
+                invalidations.incrementAndGet(stripe(k));
+                cache.invalidate(k);
+            }
+        } else if (key instanceof Object[]) {
+            for (Object k : (Object[]) key) {
+                invalidate(k);
+            }
+        }
+    }
+
+    CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0,
+                cache.stats().evictionCount());
+    }
+
+    private static int type(String command, Object[] args) {
+        if (args == null || args.length == 0) {
+            return 0;
+        }
+        switch (command) {
+            case "get":
+                if (args.length == 1) {
+                    if (args[0] instanceof String) {
+                        return STRING_GET;
+                    } else if (args[0] instanceof byte[]) {
+                        return BINARY_GET;
+                    }
+                }
+                return 0;
+            case "hget":
+                return args.length == 2 && args[0] instanceof String ? HGET : 0;
+            case "hgetAll":
+                return args.length == 1 && args[0] instanceof String ? HGETALL : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static String key(Object key) {
+        return key instanceof byte[] ? encode((byte[]) key) : (String) key;
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * a cached reply with its own expiration.
+     */
+    private static final class Slot {
+
+        private final Object value;
+        private final long expireAt;
+
+        private Slot(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private Object get(long now) {
+            return now - expireAt < 0 ? value : null;
+        }
+    }
+
+    private static final class Entry {
+
+        private static final Entry EMPTY = new Entry(null, null, null, null, null);
+
+        private final Slot value;
+        private final byte[] binaryKey;
+        private final Slot binaryValue;
+        private final Slot all;
+        private final Map<String, Slot> fields;
+        private final int weight;
+
+        private Entry(Slot value, byte[] binaryKey, Slot binaryValue, Slot all,
+                Map<String, Slot> fields) {
+            this.value = value;
+            this.binaryKey = binaryKey;
+            this.binaryValue = binaryValue;
+            this.all = all;
+            this.fields = fields;
+            this.weight = weigh(value) + weigh(binaryValue) + weigh(all) + weigh(fields);
+        }
+
+        private static int weigh(Object value) {
+            if (value instanceof Slot) {
+                return weigh(((Slot) value).value);
+            } else if (value instanceof String) {
+                return ((String) value).length();
+            } else if (value instanceof byte[]) {
+                return ((byte[]) value).length;
+            } else if (value instanceof Map) {
+                int weight = 0;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    weight += weigh(entry.getKey()) + weigh(entry.getValue());
+                }
+                return weight;
+            } else {
+                return value == null ? 0 : 1;
+            }
+        }
+
+        Object get(int type, Object[] args, long now) {
+            Slot slot;
+            switch (type) {
+                case STRING_GET:
+                    slot = value;
+                    break;
+                case BINARY_GET:
+                    // different binary keys may decode to the same string
+                    slot = Arrays.equals(binaryKey, (byte[]) args[0]) ? binaryValue : null;
+                    break;
+                case HGET:
+                    slot = fields == null ? null : fields.get(args[1]);
+                    break;
+                case HGETALL:
+                    slot = all;
+                    break;
+                default:
+                    slot = null;
+            }
+            Object result = slot == null ? null : slot.get(now);
+            return result == null ? MISS : result;
+        }
+
+        Entry with(int type, Object[] args, Slot slot, long now) {
+            switch (type) {
+                case STRING_GET:
+                    return new Entry(slot, binaryKey, binaryValue, all, fields);
+                case BINARY_GET:
+                    return new Entry(value, ((byte[]) args[0]).clone(), slot, all, fields);
+                case HGET:
+                    Map<String, Slot> newFields = new HashMap<>();
+                    if (fields != null) {
+                        // drop expired fields, or they'd stay as long as others are filled
+                        fields.forEach((field, old) -> {
+                            if (old.get(now) != null) {
+                                newFields.put(field, old);
+                            }
+                        });
+                    }
+                    newFields.put((String) args[1], slot);
+                    return new Entry(value, binaryKey, binaryValue, all, newFields);
+                case HGETALL:
+                    return new Entry(value, binaryKey, binaryValue, slot, fields);
+                default:
+                    return this;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * results of a pipeline, with keys of partitions which failed after all retries.
+ *
+ * see {@link JedisHelper#pipelineResult} and {@link JedisHelper#hedgedPipeline}.
+ */
+public final class PipelineResult<K, T> {
+
+    private final Map<K, T> results;
+    private final List<K> failedKeys;
+
+    PipelineResult(Map<K, T> results, List<K> failedKeys) {
+        this.results = results;
+        this.failedKeys = failedKeys;
+    }
+
+    /**
+     * @return results of succeeded partitions, failed keys are absent
+     */
+    public Map<K, T> getResults() {
+        return results;
+    }
+
+    /**
+     * @return in the order of partitions, empty if all succeeded
+     */
+    public List<K> getFailedKeys() {
+        return failedKeys;
+    }
+
+    public boolean isComplete() {
+        return failedKeys.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineResult{results=" + results.size() + ", failedKeys=" + failedKeys + "}";
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.lang.Long.MIN_VALUE;
+import static java.lang.Long.bitCount;
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.nio.ByteOrder.BIG_ENDIAN;
+import static java.util.Spliterator.DISTINCT;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.StreamSupport.longStream;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntSet;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongSet;
+
+/**
+ * read-only view of a redis bitmap (the value of a key written by {@code SETBIT}),
+ * without copying the underlying bytes.
+ *
+ * redis numbers bits from the highest bit of the first byte, so words are read big-endian
+ * and the n-th bit of a word is its n-th leading bit.
+ */
+public final class RedisBitmap {
+
+    private static final RedisBitmap EMPTY = new RedisBitmap(ByteBuffer.allocate(0));
+
+    private final ByteBuffer buffer;
+    private final int length;
+
+    private RedisBitmap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.length = buffer.capacity();
+    }
+
+    /**
+     * @param bytes value of a redis key, {@code null} for an empty bitmap
+     */
+    public static RedisBitmap wrap(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return EMPTY;
+        }
+        return new RedisBitmap(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * view of the remaining bytes of {@code buffer}, its position is not changed.
+     */
+    public static RedisBitmap wrap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasRemaining()) {
+            return EMPTY;
+        }
+        return new RedisBitmap(buffer.slice().order(BIG_ENDIAN));
+    }
+
+    /**
+     * 64 bits starting at {@code offset} in redis bit order, bytes beyond the array are read as 0.
+     */
+    static long readWord(byte[] bytes, int offset) {
+        if (offset + 8 <= bytes.length) {
+            return (bytes[offset] & 0xFFL) << 56 //
+                    | (bytes[offset + 1] & 0xFFL) << 48 //
+                    | (bytes[offset + 2] & 0xFFL) << 40 //
+                    | (bytes[offset + 3] & 0xFFL) << 32 //
+                    | (bytes[offset + 4] & 0xFFL) << 24 //
+                    | (bytes[offset + 5] & 0xFFL) << 16 //
+                    | (bytes[offset + 6] & 0xFFL) << 8 //
+                    | (bytes[offset + 7] & 0xFFL);
+        }
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word <<= 8;
+            if (offset + i < bytes.length) {
+                word |= bytes[offset + i] & 0xFFL;
+            }
+        }
+        return word;
+    }
+
+    /**
+     * @return number of bits, always a multiple of 8
+     */
+    public long length() {
+        return length * 8L;
+    }
+
+    public boolean get(long index) {
+        if (index < 0 || index >= length()) {
+            return false;
+        }
+        return (buffer.get((int) (index >>> 3)) & (0x80 >>> (index & 7))) != 0;
+    }
+
+    public long cardinality() {
+        long count = 0;
+        for (int i = 0, words = words(); i < words; i++) {
+            count += bitCount(word(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return index of the first set bit at or after {@code from}, -1 if none
+     */
+    public long nextSetBit(long from) {
+        if (from < 0) {
+            from = 0;
+        }
+        if (from >= length()) {
+            return -1;
+        }
+        int wordIndex = (int) (from >>> 6);
+        long word = word(wordIndex) & (-1L >>> (from & 63));
+        int words = words();
+        while (true) {
+            if (word != 0) {
+                return wordIndex * 64L + numberOfLeadingZeros(word);
+            }
+            if (++wordIndex >= words) {
+                return -1;
+            }
+            word = word(wordIndex);
+        }
+    }
+
+    public void forEachSetBit(LongConsumer consumer) {
+        for (int i = 0, words = words(); i < words; i++) {
+            long word = word(i);
+            long base = i * 64L;
+            while (word != 0) {
+                int bit = numberOfLeadingZeros(word);
+                consumer.accept(base + bit);
+                word &= ~(MIN_VALUE >>> bit);
+            }
+        }
+    }
+
+    /**
+     * set bits, ascending.
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+
+            private long next = nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                long result = next;
+                next = nextSetBit(result + 1);
+                return result;
+            }
+        };
+    }
+
+    public LongStream stream() {
+        return longStream(spliteratorUnknownSize(iterator(), ORDERED | DISTINCT | NONNULL),
+                false);
+    }
+
+    public BitSet toBitSet() {
+        long[] words = new long[words()];
+        for (int i = 0; i < words.length; i++) {
+            // BitSet counts from the lowest bit
+            words[i] = Long.reverse(word(i));
+        }
+        return BitSet.valueOf(words);
+    }
+
+    public IntSet toIntSet() {
+        IntSet result = new IntHashSet((int) cardinality());
+        forEachSetBit(bit -> result.add((int) bit));
+        return result;
+    }
+
+    public LongSet toLongSet() {
+        LongSet result = new LongHashSet((int) cardinality());
+        forEachSetBit(result::add);
+        return result;
+    }
+
+    /**
+     * @return set bits, ascending
+     */
+    public int[] toIntArray() {
+        int[] result = new int[(int) cardinality()];
+        int[] index = { 0 };
+        forEachSetBit(bit -> result[index[0]++] = (int) bit);
+        return result;
+    }
+
+    private int words() {
+        return (length + 7) >>> 3;
+    }
+
+    private long word(int wordIndex) {
+        int offset = wordIndex << 3;
+        if (offset + 8 <= length) {
+            return buffer.getLong(offset);
+        }
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word <<= 8;
+            if (offset + i < length) {
+                word |= buffer.get(offset + i) & 0xFFL;
+            }
+        }
+        return word;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Arrays.copyOfRange;
+
+import java.util.function.Function;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * how keys and values are stored as bytes, see {@link JedisHelper#withCodec(RedisCodec)}.
+ */
+public interface RedisCodec<K, V> {
+
+    static <K, V> RedisCodec<K, V> of(Function<K, byte[]> keyEncoder,
+            Function<V, byte[]> valueEncoder, Function<byte[], V> valueDecoder) {
+        checkNotNull(keyEncoder);
+        checkNotNull(valueEncoder);
+        checkNotNull(valueDecoder);
+        return new RedisCodec<K, V>() {
+
+            @Override
+            public byte[] encodeKey(K key) {
+                return keyEncoder.apply(key);
+            }
+
+            @Override
+            public byte[] encodeValue(V value) {
+                return valueEncoder.apply(value);
+            }
+
+            @Override
+            public V decodeValue(byte[] bytes) {
+                return valueDecoder.apply(bytes);
+            }
+        };
+    }
+
+    /**
+     * utf-8 string keys, the same as the {@code String} commands of jedis.
+     */
+    static <V> RedisCodec<String, V> ofStringKey(Function<V, byte[]> valueEncoder,
+            Function<byte[], V> valueDecoder) {
+        return of(SafeEncoder::encode, valueEncoder, valueDecoder);
+    }
+
+    /**
+     * deflate values of at least {@code minSize} bytes after encoding by {@code codec}.
+     * values are prefixed by a marker byte, so compressed and plain values can be mixed,
+     * but values written without this decorator can't be read by it.
+     */
+    static <K, V> RedisCodec<K, V> compressed(RedisCodec<K, V> codec, int minSize) {
+        return new CompressedCodec<>(codec, minSize);
+    }
+
+    byte[] encodeKey(K key);
+
+    byte[] encodeValue(V value);
+
+    /**
+     * @param bytes never {@code null}, missing values are not decoded
+     */
+    V decodeValue(byte[] bytes);
+
+    /**
+     * decode {@code length} bytes from {@code offset}, e.g. the value after a marker byte.
+     * copies the range for {@link #decodeValue(byte[])} by default, override it to decode
+     * in place.
+     */
+    default V decodeValue(byte[] bytes, int offset, int length) {
+        return decodeValue(copyOfRange(bytes, offset, offset + length));
+    }
+}
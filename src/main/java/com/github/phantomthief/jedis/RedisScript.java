@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.hash.Hashing.sha1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static redis.clients.util.SafeEncoder.encode;
+
+/**
+ * a lua script with its SHA1 computed once, keep it as a constant, e.g.
+ * <pre>{@code
+ * private static final RedisScript CAS = RedisScript.of(
+ *         "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+ *                 + "return redis.call('SET', KEYS[1], ARGV[2]) end return nil");
+ * }</pre>
+ * it's sent by {@code EVALSHA}, and loaded to redis only when it replies {@code NOSCRIPT}.
+ *
+ * see {@link JedisHelper#eval(RedisScript, java.util.List, java.util.List)} and
+ * {@link JedisHelper#evalPipeline}.
+ */
+public final class RedisScript {
+
+    private final String source;
+    private final String sha1;
+    private final byte[] sourceBytes;
+    private final byte[] sha1Bytes;
+
+    private RedisScript(String source) {
+        this.source = checkNotNull(source);
+        this.sourceBytes = encode(source);
+        this.sha1 = sha1().hashBytes(sourceBytes).toString();
+        this.sha1Bytes = sha1.getBytes(UTF_8);
+    }
+
+    public static RedisScript of(String source) {
+        return new RedisScript(source);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return in lower case hex, the same as {@code SCRIPT LOAD} replies
+     */
+    public String getSha1() {
+        return sha1;
+    }
+
+    byte[] getSourceBytes() {
+        return sourceBytes;
+    }
+
+    byte[] getSha1Bytes() {
+        return sha1Bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisScript{" + sha1 + "}";
+    }
+}
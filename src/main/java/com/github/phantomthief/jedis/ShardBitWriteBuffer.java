@@ -0,0 +1,418 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongByteHashMap;
+import com.carrotsearch.hppc.cursors.LongByteCursor;
+import com.github.phantomthief.jedis.JedisMetrics.Histogram;
+import com.github.phantomthief.jedis.JedisMetrics.HistogramSnapshot;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * write-behind buffer of shard bits under one key prefix, for callers which would otherwise
+ * {@link JedisHelper#setShardBit(long, String, int, boolean)} per event, e.g.
+ * <pre>{@code
+ * ShardBitWriteBuffer buffer = ShardBitWriteBuffer.newBuilder(helper, "online", 1 << 20) //
+ *         .flushInterval(1, SECONDS) //
+ *         .build();
+ * buffer.set(userId, true);
+ * }</pre>
+ *
+ * writes go to striped primitive maps, where the last write of a bit replaces earlier ones.
+ * they are flushed in the background every {@code flushInterval}, or once
+ * {@code maxBatchSize} bits are pending, by {@link JedisHelper#setShardBits} per value,
+ * which groups bits by shard key into one command each. writers block while
+ * {@code capacity} bits are pending, buffered or being flushed, until a flush writes them.
+ *
+ * bits are not readable from redis until flushed, and a failed flush is kept for the next.
+ */
+public final class ShardBitWriteBuffer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardBitWriteBuffer.class);
+
+    private static final int STRIPES = 16;
+    private static final long BLOCK_CHECK_MILLIS = 100;
+
+    private final JedisHelper<?, ?> helper;
+    private final String keyPrefix;
+    private final int keyHashRange;
+    private final int maxBatchSize;
+    private final int capacity;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final ScheduledFuture<?> scheduledFlush;
+
+    private final LongByteHashMap[] stripes = new LongByteHashMap[STRIPES];
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * writers hold the read lock from checking {@link #closed} to buffering, so no bit is
+     * buffered after the closing flush.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Object notFull = new Object();
+    private volatile boolean closed;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final Histogram flushLatency = new Histogram();
+
+    private ShardBitWriteBuffer(Builder builder) {
+        this.helper = builder.helper;
+        this.keyPrefix = builder.keyPrefix;
+        this.keyHashRange = builder.keyHashRange;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.capacity = Math.max(builder.capacity, builder.maxBatchSize);
+        this.ownScheduler = builder.scheduler == null;
+        this.scheduler = ownScheduler
+                ? newSingleThreadScheduledExecutor(new ThreadFactoryBuilder() //
+                        .setNameFormat("jedis-helper-bit-flush-" + keyPrefix.replace("%", "%%")) //
+                        .setDaemon(true) //
+                        .build())
+                : builder.scheduler;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongByteHashMap();
+        }
+        this.scheduledFlush = scheduler.scheduleWithFixedDelay(this::backgroundFlush,
+                builder.flushIntervalNanos, builder.flushIntervalNanos, NANOSECONDS);
+    }
+
+    public static Builder newBuilder(JedisHelper<?, ?> helper, String keyPrefix,
+            int keyHashRange) {
+        return new Builder(helper, keyPrefix, keyHashRange);
+    }
+
+    /**
+     * buffer {@code SETBIT} of {@code bit}, blocks while the buffer is full.
+     *
+     * @throws IllegalStateException if the buffer is closed
+     * @throws RuntimeException if interrupted while blocked, the bit is buffered anyway
+     */
+    public void set(long bit, boolean value) {
+        checkArgument(bit >= 0);
+        LongByteHashMap stripe = stripes[BitMixer.mix(bit) & (STRIPES - 1)];
+        boolean added;
+        closeLock.readLock().lock();
+        try {
+            checkState(!closed, "buffer is closed.");
+            received.incrementAndGet();
+            synchronized (stripe) {
+                int index = stripe.indexOf(bit);
+                added = !stripe.indexExists(index);
+                if (added) {
+                    stripe.indexInsert(index, bit, value ? (byte) 1 : 0);
+                } else {
+                    stripe.indexReplace(index, value ? (byte) 1 : 0);
+                }
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        if (added) {
+            int size = pending.incrementAndGet();
+            if (size >= maxBatchSize) {
+                requestFlush();
+            }
+            if (size >= capacity) {
+                awaitNotFull();
+            }
+        }
+    }
+
+    public void set(long bit) {
+        set(bit, true);
+    }
+
+    public void clear(long bit) {
+        set(bit, false);
+    }
+
+    /**
+     * write all buffered bits now, waiting for a flush in progress first.
+     *
+     * @throws redis.clients.jedis.exceptions.JedisException if some bits failed to write, they
+     *         are kept for the next flush
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            flush0();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * stop the background flush and write the remaining bits.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        scheduledFlush.cancel(false);
+        try {
+            flush();
+        } finally {
+            if (ownScheduler) {
+                scheduler.shutdown();
+            }
+            synchronized (notFull) {
+                notFull.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return distinct bits waiting for flush or being flushed
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return calls of {@link #set(long, boolean)} accepted
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return bits sent to redis
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return writes accepted per bit sent to redis, 1 if nothing coalesced
+     */
+    public double getCoalescingRatio() {
+        long w = written.get();
+        return w == 0 ? 1 : (double) received.get() / w;
+    }
+
+    public long getFlushFailures() {
+        return flushFailures.get();
+    }
+
+    /**
+     * @return nanos of each flush with bits to write
+     */
+    public HistogramSnapshot getFlushLatency() {
+        return flushLatency.snapshot(false);
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::backgroundFlush);
+            } catch (RuntimeException e) {
+                // rejected after close, the closing flush takes the bits
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void backgroundFlush() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (Throwable e) {
+            logger.warn("fail to flush shard bits of:{}, pending:{}", keyPrefix, pending.get(),
+                    e);
+        }
+    }
+
+    private void awaitNotFull() {
+        synchronized (notFull) {
+            while (pending.get() >= capacity && !closed) {
+                requestFlush();
+                try {
+                    notFull.wait(BLOCK_CHECK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw propagate(e);
+                }
+            }
+        }
+    }
+
+    private void flush0() {
+        LongArrayList sets = new LongArrayList();
+        LongArrayList clears = new LongArrayList();
+        LongByteHashMap[] drained = new LongByteHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            LongByteHashMap stripe = stripes[i];
+            synchronized (stripe) {
+                if (stripe.isEmpty()) {
+                    continue;
+                }
+                drained[i] = stripe.clone();
+                stripe.clear();
+            }
+            for (LongByteCursor cursor : drained[i]) {
+                (cursor.value != 0 ? sets : clears).add(cursor.key);
+            }
+        }
+        int size = sets.size() + clears.size();
+        if (size == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean setsWritten = false;
+        try {
+            if (!sets.isEmpty()) {
+                helper.setShardBits(sets.toArray(), keyPrefix, keyHashRange, true);
+            }
+            setsWritten = true;
+            if (!clears.isEmpty()) {
+                helper.setShardBits(clears.toArray(), keyPrefix, keyHashRange, false);
+            }
+            written.addAndGet(size);
+            // still pending while being written, so capacity bounds them too
+            pending.addAndGet(-size);
+        } catch (Throwable e) {
+            flushFailures.incrementAndGet();
+            if (setsWritten) {
+                written.addAndGet(sets.size());
+            }
+            requeue(drained, setsWritten, size);
+            throw e;
+        } finally {
+            flushLatency.record(System.nanoTime() - start);
+            synchronized (notFull) {
+                notFull.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * put back drained bits unless written after the flush began, the others are no longer
+     * pending.
+     *
+     * @param setsWritten only requeue clears if sets are written
+     * @param size bits drained
+     */
+    private void requeue(LongByteHashMap[] drained, boolean setsWritten, int size) {
+        int requeued = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            if (drained[i] == null) {
+                continue;
+            }
+            LongByteHashMap stripe = stripes[i];
+            synchronized (stripe) {
+                for (LongByteCursor cursor : drained[i]) {
+                    if (setsWritten && cursor.value != 0) {
+                        continue;
+                    }
+                    if (stripe.putIfAbsent(cursor.key, cursor.value)) {
+                        requeued++;
+                    }
+                }
+            }
+        }
+        pending.addAndGet(requeued - size);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardBitWriteBuffer{" + keyPrefix + ", pending:" + pending.get()
+                + ", coalescingRatio:" + getCoalescingRatio() + "}";
+    }
+
+    public static final class Builder {
+
+        private final JedisHelper<?, ?> helper;
+        private final String keyPrefix;
+        private final int keyHashRange;
+        private int maxBatchSize = 10000;
+        private int capacity;
+        private long flushIntervalNanos = MILLISECONDS.toNanos(500);
+        private ScheduledExecutorService scheduler;
+
+        private Builder(JedisHelper<?, ?> helper, String keyPrefix, int keyHashRange) {
+            checkArgument(keyHashRange > 0);
+            this.helper = checkNotNull(helper);
+            this.keyPrefix = checkNotNull(keyPrefix);
+            this.keyHashRange = keyHashRange;
+        }
+
+        /**
+         * flush once this many distinct bits are pending, default to 10000.
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            checkArgument(maxBatchSize > 0);
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * block writers while this many distinct bits are pending,
+         * default to 10 times of {@link #maxBatchSize}.
+         */
+        public Builder capacity(int capacity) {
+            checkArgument(capacity > 0);
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * default to 500ms.
+         */
+        public Builder flushInterval(long interval, TimeUnit unit) {
+            checkArgument(interval > 0);
+            this.flushIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * run flushes on {@code scheduler} instead of a thread of the buffer,
+         * it's not shut down on {@link ShardBitWriteBuffer#close()}.
+         */
+        public Builder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = checkNotNull(scheduler);
+            return this;
+        }
+
+        public ShardBitWriteBuffer build() {
+            if (capacity <= 0) {
+                capacity = maxBatchSize * 10;
+            }
+            return new ShardBitWriteBuffer(this);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.Collections.singletonList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+/**
+ * a bloom filter stored as shard bits of a {@link JedisHelper}, so a large filter spreads over
+ * many small keys (and shards), without the RedisBloom module, e.g.
+ * <pre>{@code
+ * ShardedBloomFilter<String> filter = ShardedBloomFilter.<String> newBuilder(helper, "seen",
+ *         Funnels.stringFunnel(UTF_8)) //
+ *         .expectedInsertions(100_000_000) //
+ *         .fpp(0.001) //
+ *         .build();
+ * filter.put(ids);
+ * Map<String, Boolean> seen = filter.mightContain(ids);
+ * }</pre>
+ *
+ * bit positions are derived like guava's {@link com.google.common.hash.BloomFilter}, by
+ * murmur3 128 double hashing. the layout of bits depends on the funnel and all options,
+ * so every client of a filter must be built the same way.
+ *
+ * a batch of elements is one {@link JedisHelper#getShardBits}/{@link JedisHelper#setShardBits}
+ * call, which is a round-trip per pipeline partition.
+ */
+public final class ShardedBloomFilter<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final JedisHelper<?, ?> helper;
+    private final String keyPrefix;
+    private final Funnel<? super T> funnel;
+    private final long bitSize;
+    private final int hashFunctions;
+    private final int keyHashRange;
+
+    private ShardedBloomFilter(Builder<T> builder) {
+        this.helper = builder.helper;
+        this.keyPrefix = builder.keyPrefix;
+        this.funnel = builder.funnel;
+        this.bitSize = optimalBits(builder.expectedInsertions, builder.fpp);
+        this.hashFunctions = optimalHashFunctions(builder.expectedInsertions, bitSize);
+        this.keyHashRange = builder.keyHashRange;
+    }
+
+    public static <T> Builder<T> newBuilder(JedisHelper<?, ?> helper, String keyPrefix,
+            Funnel<? super T> funnel) {
+        return new Builder<>(helper, keyPrefix, funnel);
+    }
+
+    public boolean mightContain(T element) {
+        return mightContain(singletonList(element)).get(element);
+    }
+
+    /**
+     * @return {@code false} if an element is definitely not put before
+     */
+    public Map<T, Boolean> mightContain(Collection<? extends T> elements) {
+        List<T> list = new ArrayList<>(elements);
+        BitSet set = helper.getShardBits(bits(list), keyPrefix, keyHashRange);
+        return collect(list, set, true);
+    }
+
+    /**
+     * @return {@code true} if bits changed, i.e. the element is definitely not put before
+     */
+    public boolean put(T element) {
+        return put(singletonList(element)).get(element);
+    }
+
+    /**
+     * @return an element maps to {@code true} if bits changed by it, or by a duplicate of it
+     *         in the same batch
+     */
+    public Map<T, Boolean> put(Collection<? extends T> elements) {
+        List<T> list = new ArrayList<>(elements);
+        BitSet wasSet = helper.setShardBits(bits(list), keyPrefix, keyHashRange, true);
+        return collect(list, wasSet, false);
+    }
+
+    /**
+     * estimated by the number of set bits, see {@link JedisHelper#getShardBitCount}.
+     */
+    public long approximateElementCount() {
+        long setBits = helper.getShardBitCount(keyPrefix, keyHashRange, 0, bitSize - 1);
+        double fraction = (double) setBits / bitSize;
+        return Math.round(-Math.log1p(-fraction) * bitSize / hashFunctions);
+    }
+
+    /**
+     * remove all elements, see {@link JedisHelper#delShardBit}.
+     */
+    public void clear() {
+        helper.delShardBit(keyPrefix, keyHashRange, 0, bitSize - 1);
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * @return {@link #getHashFunctions()} bits of each element, element by element
+     */
+    private long[] bits(List<T> elements) {
+        long[] bits = new long[elements.size() * hashFunctions];
+        int i = 0;
+        for (T element : elements) {
+            byte[] bytes = HASH.hashObject(element, funnel).asBytes();
+            long hash1 = Longs.fromBytes(bytes[7], bytes[6], bytes[5], bytes[4], bytes[3],
+                    bytes[2], bytes[1], bytes[0]);
+            long hash2 = Longs.fromBytes(bytes[15], bytes[14], bytes[13], bytes[12], bytes[11],
+                    bytes[10], bytes[9], bytes[8]);
+            long combined = hash1;
+            for (int j = 0; j < hashFunctions; j++) {
+                bits[i++] = (combined & Long.MAX_VALUE) % bitSize;
+                combined += hash2;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param all {@code true} if an element is {@code true} when all of its bits are set,
+     *        otherwise when any of them is not set
+     */
+    private Map<T, Boolean> collect(List<T> elements, BitSet set, boolean all) {
+        Map<T, Boolean> result = new LinkedHashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            int from = i * hashFunctions;
+            boolean allSet = set.nextClearBit(from) >= from + hashFunctions;
+            result.merge(elements.get(i), allSet == all, Boolean::logicalOr);
+        }
+        return result;
+    }
+
+    private static long optimalBits(long expectedInsertions, double fpp) {
+        return Math.max(1, (long) (-expectedInsertions * Math.log(fpp)
+                / (Math.log(2) * Math.log(2))));
+    }
+
+    private static int optimalHashFunctions(long expectedInsertions, long bits) {
+        return Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedBloomFilter{" + keyPrefix + ", bits:" + bitSize + ", hashFunctions:"
+                + hashFunctions + "}";
+    }
+
+    public static final class Builder<T> {
+
+        private final JedisHelper<?, ?> helper;
+        private final String keyPrefix;
+        private final Funnel<? super T> funnel;
+        private long expectedInsertions;
+        private double fpp = 0.03;
+        private int keyHashRange = 1 << 23;
+
+        private Builder(JedisHelper<?, ?> helper, String keyPrefix, Funnel<? super T> funnel) {
+            this.helper = checkNotNull(helper);
+            this.keyPrefix = checkNotNull(keyPrefix);
+            this.funnel = checkNotNull(funnel);
+        }
+
+        public Builder<T> expectedInsertions(long expectedInsertions) {
+            checkArgument(expectedInsertions > 0);
+            this.expectedInsertions = expectedInsertions;
+            return this;
+        }
+
+        /**
+         * expected false positive probability at {@link #expectedInsertions}, default to 3%.
+         */
+        public Builder<T> fpp(double fpp) {
+            checkArgument(fpp > 0 && fpp < 1);
+            this.fpp = fpp;
+            return this;
+        }
+
+        /**
+         * bits per shard key, default to 8M (a 1MB string).
+         */
+        public Builder<T> keyHashRange(int keyHashRange) {
+            checkArgument(keyHashRange > 0);
+            this.keyHashRange = keyHashRange;
+            return this;
+        }
+
+        public ShardedBloomFilter<T> build() {
+            checkArgument(expectedInsertions > 0, "expectedInsertions is required.");
+            return new ShardedBloomFilter<>(this);
+        }
+    }
+}
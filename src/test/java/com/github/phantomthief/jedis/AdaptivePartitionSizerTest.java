@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.github.phantomthief.jedis.AdaptivePartitionSizer.Site;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+
+public class AdaptivePartitionSizerTest {
+
+    private static final long TARGET = MILLISECONDS.toNanos(50);
+
+    @Test
+    public void testInitialSizeClamped() {
+        assertEquals(10, new AdaptivePartitionSizer(TARGET, 10, 100, 5).site(this).nextSize());
+        assertEquals(100, new AdaptivePartitionSizer(TARGET, 10, 100, 500).site(this).nextSize());
+        assertEquals(42, new AdaptivePartitionSizer(TARGET, 10, 100, 42).site(this).nextSize());
+    }
+
+    @Test
+    public void testSizedByLatency() {
+        Site site = new AdaptivePartitionSizer(TARGET, 1, 10000, 100).site(this);
+        // 1ms per key
+        site.record(100, MILLISECONDS.toNanos(100), 100);
+        assertEquals(50, site.nextSize());
+        // converges to 0.1ms per key
+        for (int i = 0; i < 100; i++) {
+            site.record(100, MILLISECONDS.toNanos(10), 100);
+        }
+        int converged = site.nextSize();
+        assertTrue(String.valueOf(converged), converged >= 495 && converged <= 500);
+        site.record(0, SECONDS.toNanos(1), 0);
+        assertEquals(converged, site.nextSize());
+    }
+
+    @Test
+    public void testSizedByResponseBytes() {
+        Site site = new AdaptivePartitionSizer(TARGET, 1, 10000, 100).site(this);
+        // fast, but 128KB per key
+        site.record(10, 10, 10 * (128 << 10));
+        assertEquals(AdaptivePartitionSizer.MAX_PARTITION_RESPONSE_BYTES / (128 << 10),
+                site.nextSize());
+        Site bounded = new AdaptivePartitionSizer(TARGET, 20, 10000, 100).site(this);
+        bounded.record(10, 10, 10 * (128 << 10));
+        assertEquals(20, bounded.nextSize());
+    }
+
+    @Test
+    public void testSitePerFunctionClass() {
+        AdaptivePartitionSizer sizer = new AdaptivePartitionSizer(TARGET, 1, 10000, 100);
+        Function<String, String> first = s -> s;
+        Function<String, String> second = s -> s + s;
+        assertSame(sizer.site(first), sizer.site(first));
+        assertNotSame(sizer.site(first), sizer.site(second));
+        sizer.site(first).record(100, MILLISECONDS.toNanos(100), 100);
+        assertEquals(50, sizer.site(first).nextSize());
+        assertEquals(100, sizer.site(second).nextSize());
+    }
+
+    @Test
+    public void testPartitionSizedWhenTaken() {
+        Site site = new AdaptivePartitionSizer(TARGET, 1, 10000, 30).site(this);
+        List<Integer> keys = IntStream.range(0, 100).boxed().collect(toList());
+        Iterator<List<Integer>> partitions = site.partition(keys).iterator();
+        assertEquals(keys.subList(0, 30), partitions.next());
+        site.record(30, MILLISECONDS.toNanos(60), 30);
+        assertEquals(keys.subList(30, 55), partitions.next());
+        List<Integer> rest = new ArrayList<>();
+        partitions.forEachRemaining(rest::addAll);
+        assertEquals(keys.subList(55, 100), rest);
+    }
+
+    @Test
+    public void testWeigh() {
+        assertEquals(3, AdaptivePartitionSizer.weigh("abc"));
+        assertEquals(4, AdaptivePartitionSizer.weigh(new byte[4]));
+        assertEquals(8, AdaptivePartitionSizer.weigh(1L));
+        assertEquals(5, AdaptivePartitionSizer.weigh(asList("ab", "cde")));
+        assertEquals(4, AdaptivePartitionSizer.weigh(singletonMap("a", "bcd")));
+    }
+
+    @Test
+    public void testAdaptivePipeline() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort())) {
+            List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                    .withPipelinePartitionSize(7) //
+                    .enableAdaptivePipelinePartition(1, SECONDS, 5, 500) //
+                    .enableProfiler(() -> null, watch -> batchSizes.add(watch.getBatchSize())) //
+                    .build();
+            List<String> keys = IntStream.range(0, 1000).mapToObj(i -> "key" + i)
+                    .collect(toList());
+            helper.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+            assertEquals(7, (int) batchSizes.get(0));
+            assertEquals(keys.size(), batchSizes.stream().mapToInt(Integer::intValue).sum());
+            // partitions of a fast server grow, up to the max
+            assertTrue(batchSizes.toString(), batchSizes.get(1) > 7);
+            assertTrue(batchSizes.toString(), batchSizes.stream().allMatch(size -> size <= 500));
+
+            Map<String, String> values = helper.pipeline(keys, PipelineBase::get);
+            assertEquals(keys.size(), values.size());
+            keys.forEach(key -> assertEquals("v" + key, values.get(key)));
+        }
+    }
+
+    @Test
+    public void testWrappersKeepCallSites() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort())) {
+            List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                    .withPipelinePartitionSize(7) //
+                    .enableAdaptivePipelinePartition(1, SECONDS, 5, 500) //
+                    .enableProfiler(() -> null, watch -> batchSizes.add(watch.getBatchSize())) //
+                    .build();
+            CodecCommands<Pipeline, String, String> codec = helper.withCodec(
+                    RedisCodec.ofStringKey(value -> value.getBytes(UTF_8),
+                            bytes -> new String(bytes, UTF_8)));
+            List<String> keys = IntStream.range(0, 1000).mapToObj(i -> "key" + i)
+                    .collect(toList());
+
+            codec.pipeline(keys, (p, key) -> p.get(key));
+            assertTrue(batchSizes.toString(), batchSizes.get(1) > 7);
+            batchSizes.clear();
+            codec.pipeline(keys, (p, key) -> p.getSet(key, new byte[0]));
+            assertEquals(7, (int) batchSizes.get(0));
+
+            batchSizes.clear();
+            helper.pipelineGet(keys, key -> key, value -> value);
+            assertTrue(batchSizes.toString(), batchSizes.get(1) > 7);
+            batchSizes.clear();
+            helper.pipelineGet(keys, key -> "other" + key, value -> value);
+            assertEquals(7, (int) batchSizes.get(0));
+        }
+    }
+}
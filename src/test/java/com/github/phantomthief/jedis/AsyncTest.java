@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+
+public class AsyncTest {
+
+    private final List<String> keys = IntStream.range(0, 50).mapToObj(i -> "key" + i)
+            .collect(toList());
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        executor = Executors.newSingleThreadExecutor();
+        JedisHelper.newBuilder(() -> pool).build().pipeline(keys, (p, k) -> p.set(k, "v" + k));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool).build();
+        Thread thread = helper.async(j -> Thread.currentThread()).get(10, SECONDS);
+        assertTrue(thread.getName(), thread.getName().startsWith("jedis-helper-async-"));
+        assertTrue(thread.isDaemon());
+        assertEquals("vkey1", helper.async(j -> j.get("key1")).get(10, SECONDS));
+
+        Map<String, String> values = helper.pipelineAsync(keys, PipelineBase::get).get(10,
+                SECONDS);
+        assertEquals(keys.size(), values.size());
+        keys.forEach(key -> assertEquals("v" + key, values.get(key)));
+    }
+
+    @Test
+    public void testSharedSingleThreadExecutor() throws Exception {
+        // partitions of a pipeline on the executor don't wait behind it
+        JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(5) //
+                .enableParallelPipeline(4, executor) //
+                .withAsyncExecutor(executor) //
+                .build();
+        Map<String, String> values = helper.pipelineAsync(keys, PipelineBase::get).get(10,
+                SECONDS);
+        assertEquals(keys.size(), values.size());
+        assertEquals("vkey1", helper.async(j -> helper.get().get("key1")).get(10, SECONDS));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.phantomthief.jedis.JedisHelper.StopTheWatch;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class AutoBatchingTest {
+
+    private static final int THREADS = 16;
+    private static final int COMMANDS = 50;
+
+    private final Queue<StopTheWatch<Object>> watches = new ConcurrentLinkedQueue<>();
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private ExecutorService executor;
+    private JedisHelper<Pipeline, Jedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        executor = Executors.newFixedThreadPool(THREADS);
+        helper = JedisHelper.newBuilder(() -> pool) //
+                .enableAutoBatching(5, MILLISECONDS, 64) //
+                .enableProfiler(() -> null, watches::add) //
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testConcurrentCommandsBatched() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            String key = "counter" + i;
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                for (int j = 1; j <= COMMANDS; j++) {
+                    assertEquals(j, (long) helper.get().incr(key));
+                    assertEquals(String.valueOf(j), helper.get().get(key));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, SECONDS);
+        }
+        long commands = watches.stream() //
+                .filter(watch -> "autoBatch".equals(watch.getMethod())) //
+                .mapToLong(StopTheWatch::getBatchSize) //
+                .sum();
+        long roundTrips = watches.stream() //
+                .filter(watch -> "autoBatch".equals(watch.getMethod())) //
+                .count();
+        assertEquals(THREADS * COMMANDS * 2, commands);
+        assertTrue(roundTrips + " round-trips", roundTrips < commands / 2);
+    }
+
+    @Test
+    public void testErrorOnlyFailsItsCommand() throws Exception {
+        helper.get().set("text", "abc");
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Future<?> failed = executor.submit(() -> {
+            barrier.await();
+            try {
+                helper.get().incr("text");
+                fail();
+            } catch (JedisDataException expected) {
+                // expected
+            }
+            return null;
+        });
+        Future<String> succeeded = executor.submit(() -> {
+            barrier.await();
+            return helper.get().get("text");
+        });
+        failed.get(10, SECONDS);
+        assertEquals("abc", succeeded.get(10, SECONDS));
+        assertEquals("abc", helper.get().get("text"));
+    }
+
+    @Test
+    public void testConcurrentFlushesBounded() throws Exception {
+        JedisHelper<Pipeline, Jedis> bounded = JedisHelper.newBuilder(() -> pool) //
+                .enableAutoBatching(0, MILLISECONDS, 1, 2) //
+                .build();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String key = "slow" + i;
+            helper.get().set(key, key);
+            server.delayNext(key, 200);
+            futures.add(executor.submit(() -> bounded.get().get(key)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("slow" + i, futures.get(i).get(10, SECONDS));
+        }
+        // the one of the helper, two flushing threads and the collector itself
+        assertTrue(server.getConnections() + " connections", server.getConnections() <= 4);
+    }
+}
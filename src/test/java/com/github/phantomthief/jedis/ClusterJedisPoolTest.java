@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static redis.clients.jedis.BinaryJedisCluster.HASHSLOTS;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.PipelineBase;
+import redis.clients.util.JedisClusterCRC16;
+
+public class ClusterJedisPoolTest {
+
+    private final List<String> keys = IntStream.range(0, 300).mapToObj(i -> "key" + i)
+            .collect(toList());
+
+    private List<MockRedisServer> nodes;
+    private ClusterJedisPool pool;
+    private JedisHelper<ClusterJedisPipeline, ClusterJedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        nodes = MockRedisServer.cluster(3);
+        pool = new ClusterJedisPool(singleton(nodes.get(0).getHostAndPort()));
+        helper = JedisHelper.newClusterBuilder(() -> pool) //
+                .withPipelinePartitionSize(50) //
+                .build();
+        helper.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        for (MockRedisServer node : nodes) {
+            node.close();
+        }
+    }
+
+    private MockRedisServer owner(String key) {
+        return nodes.get(JedisClusterCRC16.getSlot(key) * nodes.size() / HASHSLOTS);
+    }
+
+    @Test
+    public void testKeysOnTheirNodes() {
+        assertEquals(nodes.size(), pool.getMasters().size());
+        for (String key : keys) {
+            assertArrayEquals(("v" + key).getBytes(UTF_8), owner(key).getLocal(key));
+        }
+        assertEquals("vkey7", helper.get().get("key7"));
+    }
+
+    @Test
+    public void testMoved() {
+        MockRedisServer from = nodes.get(0);
+        MockRedisServer to = nodes.get(2);
+        String movedKey = keys.stream().filter(key -> owner(key) == from).findFirst().get();
+        int movedSlot = JedisClusterCRC16.getSlot(movedKey);
+        from.moveSlots(0, HASHSLOTS / nodes.size() - 1, to);
+
+        Map<String, String> values = helper.pipeline(keys, PipelineBase::get);
+        assertEquals(keys.size(), values.size());
+        keys.forEach(key -> assertEquals("v" + key, values.get(key)));
+        assertEquals(to.getHostAndPort(), pool.getSlotNode(movedSlot));
+
+        helper.get().set(movedKey, "updated");
+        assertArrayEquals("updated".getBytes(UTF_8), to.getLocal(movedKey));
+        assertNull(from.getLocal(movedKey));
+        assertEquals("updated", helper.get().get(movedKey));
+    }
+
+    @Test
+    public void testMovedSingleCommand() {
+        MockRedisServer from = nodes.get(1);
+        MockRedisServer to = nodes.get(0);
+        String movedKey = keys.stream().filter(key -> owner(key) == from).findFirst().get();
+        from.moveSlots(HASHSLOTS / nodes.size(), HASHSLOTS * 2 / nodes.size(), to);
+        assertEquals("v" + movedKey, helper.get().get(movedKey));
+        assertEquals(to.getHostAndPort(), pool.getSlotNode(JedisClusterCRC16.getSlot(movedKey)));
+    }
+
+    @Test
+    public void testAutoBatchingRedirected() {
+        JedisHelper<ClusterJedisPipeline, ClusterJedis> batching = JedisHelper
+                .newClusterBuilder(() -> pool) //
+                .enableAutoBatching(1, MILLISECONDS, 16) //
+                .build();
+        MockRedisServer from = nodes.get(0);
+        MockRedisServer to = nodes.get(1);
+        List<String> movedKeys = keys.stream().filter(key -> owner(key) == from)
+                .collect(toList());
+        from.moveSlots(0, HASHSLOTS / nodes.size() - 1, to);
+        movedKeys.forEach(key -> assertEquals("v" + key, batching.get().get(key)));
+        batching.get().set(movedKeys.get(0), "updated");
+        assertArrayEquals("updated".getBytes(UTF_8), to.getLocal(movedKeys.get(0)));
+
+        String key = "fresh";
+        int slot = JedisClusterCRC16.getSlot(key);
+        MockRedisServer owner = owner(key);
+        MockRedisServer target = nodes.get((nodes.indexOf(owner) + 1) % nodes.size());
+        owner.migrate(slot, target);
+        batching.get().set(key, "asked");
+        assertArrayEquals("asked".getBytes(UTF_8), target.getLocal(key));
+        assertEquals("asked", batching.get().get(key));
+    }
+
+    @Test
+    public void testAsk() {
+        String key = "fresh";
+        int slot = JedisClusterCRC16.getSlot(key);
+        MockRedisServer from = owner(key);
+        MockRedisServer to = nodes.get((nodes.indexOf(from) + 1) % nodes.size());
+        from.migrate(slot, to);
+
+        helper.pipeline(singletonList(key), (p, k) -> p.set(k, "asked"));
+        assertArrayEquals("asked".getBytes(UTF_8), to.getLocal(key));
+        assertNull(from.getLocal(key));
+        assertEquals("asked", helper.pipeline(singletonList(key), PipelineBase::get).get(key));
+        assertEquals("asked", helper.get().get(key));
+        // ask doesn't move the slot
+        assertEquals(from.getHostAndPort(), pool.getSlotNode(slot));
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import redis.clients.jedis.BinaryJedisCommands;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+
+public class CommandProxyTest {
+
+    private static final byte[] BINARY_KEY = "binary".getBytes(UTF_8);
+
+    @Test
+    public void testSingleNode() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort())) {
+            JedisHelper<?, ?> helper = JedisHelper.newBuilder(() -> pool).build();
+            assertCommands(helper.get(), helper.getBinary());
+        }
+    }
+
+    @Test
+    public void testCluster() throws IOException {
+        List<MockRedisServer> nodes = MockRedisServer.cluster(3);
+        try (ClusterJedisPool pool = new ClusterJedisPool(
+                singleton(nodes.get(0).getHostAndPort()))) {
+            JedisHelper<?, ?> helper = JedisHelper.newClusterBuilder(() -> pool).build();
+            assertCommands(helper.get(), helper.getBinary());
+        } finally {
+            for (MockRedisServer node : nodes) {
+                node.close();
+            }
+        }
+    }
+
+    private void assertCommands(JedisCommands commands, BinaryJedisCommands binary) {
+        assertEquals("OK", commands.set("a", "1"));
+        assertEquals("1", commands.get("a"));
+        assertNull(commands.get("missing"));
+        assertEquals(2L, (long) commands.incr("a"));
+        assertTrue(commands.exists("a"));
+        assertEquals(1L, (long) commands.del("a"));
+        assertFalse(commands.exists("a"));
+
+        // primitive arguments
+        assertFalse(commands.setbit("bits", 9, true));
+        assertTrue(commands.getbit("bits", 9));
+        assertFalse(commands.getbit("bits", 8));
+
+        // varargs
+        assertEquals(2L, (long) commands.sadd("set", "x", "y", "x"));
+        assertEquals(1L, (long) commands.sadd("set", "z"));
+        assertEquals(2L, (long) commands.srem("set", "x", "z", "missing"));
+        assertEquals(1L, (long) commands.scard("set"));
+
+        byte[] x = "x".getBytes(UTF_8);
+        assertEquals(2L, (long) binary.sadd(BINARY_KEY, x, "y".getBytes(UTF_8)));
+        assertTrue(binary.sismember(BINARY_KEY, x));
+        assertEquals(1L, (long) binary.srem(BINARY_KEY, x));
+        assertEquals(1L, (long) binary.scard(BINARY_KEY));
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.github.phantomthief.jedis.HotKeyTracker.HotKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+
+public class HotKeyTrackerTest {
+
+    private static final HostAndPort HOST = HostAndPort.fromParts("127.0.0.1", 6379);
+
+    @Test
+    public void testTopKeys() {
+        HotKeyTracker tracker = HotKeyTracker.newBuilder() //
+                .sampleOneIn(1) //
+                .window(1, MINUTES) //
+                .topK(3) //
+                .build();
+        for (int i = 0; i < 100; i++) {
+            tracker.record(HOST, "get", "hot");
+            if (i % 2 == 0) {
+                tracker.record(HOST, "get", "warm".getBytes(UTF_8));
+            }
+            if (i % 10 == 0) {
+                tracker.record(HOST, "get", "cold");
+                tracker.record(HOST, "get", "once" + i);
+            }
+        }
+        // the same key by another command is another entry
+        tracker.record(HOST, "set", "hot");
+
+        List<HotKey> top = tracker.snapshot();
+        assertEquals(ImmutableList.of("hot", "warm", "cold"),
+                top.stream().map(HotKey::getKey).collect(toList()));
+        assertEquals("get", top.get(0).getCommand());
+        assertEquals(HOST, top.get(0).getHost());
+        assertEquals(100, top.get(0).getCount());
+        assertEquals(50, top.get(1).getCount());
+        assertEquals(10, top.get(2).getCount());
+    }
+
+    @Test
+    public void testListenerOncePerWindow() {
+        List<HotKey> reported = new CopyOnWriteArrayList<>();
+        HotKeyTracker tracker = HotKeyTracker.newBuilder() //
+                .sampleOneIn(1) //
+                .window(1, MINUTES) //
+                .onHotKey(1, reported::add) //
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            tracker.record(HOST, "get", "hot");
+        }
+        assertEquals(1, reported.size());
+        assertEquals("hot", reported.get(0).getKey());
+        assertTrue(reported.get(0).getRate() > 1);
+        tracker.record((HostAndPort) null, "get", "other");
+        assertEquals(JedisMetrics.UNKNOWN_HOST, reported.get(1).getHost());
+    }
+}
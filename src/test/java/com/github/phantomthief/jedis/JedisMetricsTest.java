@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.phantomthief.jedis.JedisMetrics.Histogram;
+import com.github.phantomthief.jedis.JedisMetrics.HistogramSnapshot;
+
+public class JedisMetricsTest {
+
+    @Test
+    public void testSmallValuesHaveOwnBuckets() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot(false);
+        assertEquals(8, snapshot.getCount());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, snapshot.getValueAtPercentile(100.0 * (i + 1) / 8));
+        }
+    }
+
+    @Test
+    public void testBucketBoundsWithinAnEighth() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long value = 8 + (random.nextLong() & Long.MAX_VALUE) % (1L << (8 + i % 48));
+            Histogram histogram = new Histogram();
+            histogram.record(value);
+            // the larger value keeps the upper bound from being clipped by the max
+            histogram.record(Long.MAX_VALUE);
+            long upper = histogram.snapshot(false).getValueAtPercentile(50);
+            assertTrue(value + " -> " + upper, upper >= value);
+            assertTrue(value + " -> " + upper, upper - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testEdgeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+        HistogramSnapshot snapshot = histogram.snapshot(true);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, snapshot.getValueAtPercentile(100));
+        assertEquals(Long.MAX_VALUE, snapshot.getMax());
+
+        HistogramSnapshot reset = histogram.snapshot(false);
+        assertEquals(0, reset.getCount());
+        assertEquals(0, reset.getMax());
+        assertEquals(0, reset.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.phantomthief.jedis.JedisUtils.SyncResult;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class JedisUtilsTest {
+
+    // more than a chunk of ZADD/ZREM, and many pages of a scan
+    private static final int LARGE = 2500;
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisHelper<Pipeline, Jedis> helper;
+    private JedisCommands commands;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        helper = JedisHelper.newBuilder(() -> pool).withPipelinePartitionSize(2).build();
+        commands = helper.get();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testSyncSortedSetKeys() {
+        commands.zadd("z1", ImmutableMap.of("a", 1.0, "b", 2.0, "c", 3.0));
+        commands.zadd("z3", ImmutableMap.of("a", 1.0));
+        Map<String, Double> large = new HashMap<>();
+        for (int i = 0; i < LARGE; i++) {
+            large.put("old" + i, (double) i);
+        }
+        commands.zadd("z4", large);
+
+        Map<Integer, Map<String, Double>> source = new HashMap<>();
+        source.put(1, ImmutableMap.of("a", 1.0, "b", 5.0, "d", 4.0));
+        source.put(2, ImmutableMap.of("a", 1.0));
+        source.put(3, ImmutableMap.of("a", 1.0));
+        Map<String, Double> changed = new HashMap<>();
+        for (int i = 0; i < LARGE; i++) {
+            changed.put((i % 2 == 0 ? "old" : "new") + i, i % 4 == 0 ? i + 0.5 : i);
+        }
+        source.put(4, changed);
+
+        SyncResult result = JedisUtils.syncSortedSetKeys(helper, asList(1, 1, 2, 3, 4),
+                id -> "z" + id, source::get);
+        // a key repeated in a partition is synced once
+        assertEquals(3, result.getKeys());
+        assertEquals(1 + LARGE / 2, result.getAdded());
+        assertEquals(1 + LARGE / 2, result.getRemoved());
+        assertEquals(1 + LARGE / 4, result.getUpdated());
+
+        assertZset(source.get(1), "z1");
+        assertFalse(commands.exists("z2"));
+        assertZset(source.get(3), "z3");
+        assertZset(changed, "z4");
+
+        SyncResult again = JedisUtils.syncSortedSetKeys(helper, asList(1, 2, 3, 4),
+                id -> "z" + id, source::get);
+        assertEquals(3, again.getKeys());
+        assertFalse(again.isChanged());
+    }
+
+    @Test
+    public void testSyncHashKeys() {
+        commands.hmset("h1", ImmutableMap.of("a", "1", "b", "2", "c", "3"));
+        commands.hmset("h3", ImmutableMap.of("a", "1"));
+        Map<String, String> large = new HashMap<>();
+        for (int i = 0; i < LARGE; i++) {
+            large.put("old" + i, "v" + i);
+        }
+        commands.hmset("h4", large);
+
+        Map<Integer, Map<String, String>> source = new HashMap<>();
+        source.put(1, ImmutableMap.of("a", "1", "b", "5", "d", "4"));
+        source.put(2, ImmutableMap.of("a", "1"));
+        source.put(3, ImmutableMap.of("a", "1"));
+        Map<String, String> changed = new HashMap<>();
+        for (int i = 0; i < LARGE; i++) {
+            changed.put((i % 2 == 0 ? "old" : "new") + i, i % 4 == 0 ? "changed" : "v" + i);
+        }
+        source.put(4, changed);
+
+        SyncResult result = JedisUtils.syncHashKeys(helper, asList(1, 1, 2, 3, 4),
+                id -> "h" + id, source::get, false);
+        assertEquals(3, result.getKeys());
+        assertEquals(1 + LARGE / 2, result.getAdded());
+        assertEquals(1 + LARGE / 2, result.getRemoved());
+        assertEquals(1 + LARGE / 4, result.getUpdated());
+
+        assertEquals(source.get(1), commands.hgetAll("h1"));
+        assertFalse(commands.exists("h2"));
+        assertEquals(source.get(3), commands.hgetAll("h3"));
+        assertEquals(changed, commands.hgetAll("h4"));
+        assertFalse(JedisUtils.syncHashKey(helper, 4, id -> "h" + id, source::get, false));
+    }
+
+    @Test
+    public void testSyncHashKeyAppendOnly() {
+        commands.hmset("h1", ImmutableMap.of("a", "1", "b", "2", "c", "3"));
+        Map<String, String> source = ImmutableMap.of("a", "1", "b", "5", "d", "4");
+        assertTrue(JedisUtils.syncHashKey(helper, 1, id -> "h" + id, id -> source, true));
+        // fields missing in the source are kept
+        assertEquals(ImmutableMap.of("a", "1", "b", "5", "c", "3", "d", "4"),
+                commands.hgetAll("h1"));
+        assertFalse(JedisUtils.syncHashKey(helper, 1, id -> "h" + id, id -> source, true));
+        assertFalse(JedisUtils.syncHashKey(helper, 2, id -> "h" + id, id -> source, true));
+        assertFalse(commands.exists("h2"));
+    }
+
+    private void assertZset(Map<String, Double> expected, String key) {
+        assertEquals(expected.size(), (long) commands.zcard(key));
+        expected.forEach((member, score) -> assertEquals(score, commands.zscore(key, member)));
+        assertNull(commands.zscore(key, "c"));
+    }
+}
@@ -0,0 +1,765 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
+import static redis.clients.jedis.BinaryJedisCluster.HASHSLOTS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * in-process stand-in for redis on a free port, with string, bit and a few hash, set and
+ * sorted set commands.
+ * nodes of {@link #cluster(int)} share a slot map, and answer {@code MOVED}/{@code ASK} like
+ * a redis cluster when {@link #moveSlots}/{@link #migrate} change it behind the clients.
+ *
+ * all data of a server (or a cluster) is guarded by one lock, like the single thread of redis.
+ * lua scripts are not interpreted, the bit scripts of {@link JedisHelper} and scripts of one
+ * {@code GET} or {@code INCRBY} of {@code KEYS[1]} are recognized by the command they call.
+ */
+final class MockRedisServer implements Closeable {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final String HOST = "127.0.0.1";
+    private static final ImmutableSet<String> KEYLESS = ImmutableSet.of("PING", "SELECT",
+            "FLUSHALL", "FLUSHDB", "SCRIPT", "CLUSTER", "ASKING", "QUIT", "SCAN");
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("mock-redis-%d").setDaemon(true).build());
+    private final Map<String, byte[]> data = new HashMap<>();
+    /**
+     * fields of hashes with their values, members of sets with empty values, and of sorted sets
+     * with their scores as sent. the types of collections are not checked.
+     */
+    private final Map<String, Map<String, byte[]>> collections = new HashMap<>();
+    private final Map<String, byte[]> scripts = new HashMap<>();
+    private final Map<String, Long> delays = new ConcurrentHashMap<>();
+    private final Set<String> resets = ConcurrentHashMap.newKeySet();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Cluster cluster;
+
+    MockRedisServer() throws IOException {
+        this(null);
+    }
+
+    private MockRedisServer(Cluster cluster) throws IOException {
+        this.cluster = cluster;
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    /**
+     * @return nodes serving even ranges of slots
+     */
+    static List<MockRedisServer> cluster(int size) throws IOException {
+        Cluster cluster = new Cluster();
+        List<MockRedisServer> nodes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            nodes.add(new MockRedisServer(cluster));
+        }
+        cluster.nodes.addAll(nodes);
+        for (int slot = 0; slot < HASHSLOTS; slot++) {
+            cluster.slots[slot] = nodes.get((int) ((long) slot * size / HASHSLOTS));
+        }
+        return nodes;
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    HostAndPort getHostAndPort() {
+        return new HostAndPort(HOST, getPort());
+    }
+
+    /**
+     * @return connections accepted so far
+     */
+    int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * hold the reply of the next command on {@code key} for {@code millis}.
+     */
+    void delayNext(String key, long millis) {
+        delays.put(key, millis);
+    }
+
+    /**
+     * reset the connection on the next command on {@code key}, without replying to it or to
+     * commands pipelined before it.
+     */
+    void resetNext(String key) {
+        resets.add(key);
+    }
+
+    /**
+     * forget scripts, like {@code SCRIPT FLUSH} on this node.
+     */
+    void scriptFlush() {
+        synchronized (lock()) {
+            scripts.clear();
+        }
+    }
+
+    /**
+     * reassign slots in [start, end] with their keys to {@code target}, without telling clients.
+     */
+    void moveSlots(int start, int end, MockRedisServer target) {
+        synchronized (cluster) {
+            for (int slot = start; slot <= end; slot++) {
+                cluster.slots[slot] = target;
+            }
+            for (MockRedisServer node : cluster.nodes) {
+                if (node == target) {
+                    continue;
+                }
+                Iterator<Map.Entry<String, byte[]>> iterator = node.data.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, byte[]> entry = iterator.next();
+                    int slot = JedisClusterCRC16.getSlot(entry.getKey());
+                    if (slot >= start && slot <= end) {
+                        target.data.put(entry.getKey(), entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * start migrating {@code slot} to {@code target}, keys not found on its owner are
+     * redirected there by {@code ASK}.
+     */
+    void migrate(int slot, MockRedisServer target) {
+        synchronized (cluster) {
+            cluster.migrating.put(slot, target);
+        }
+    }
+
+    /**
+     * @return the value of {@code key} on this node, bypassing redirections
+     */
+    byte[] getLocal(String key) {
+        synchronized (lock()) {
+            return data.get(key);
+        }
+    }
+
+    private Object lock() {
+        return cluster != null ? cluster : this;
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, ISO_8859_1);
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(ISO_8859_1);
+    }
+
+    private static long number(byte[] bytes) {
+        return Long.parseLong(string(bytes));
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write('+');
+        out.write(value.getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write('-');
+        out.write(message.getBytes(UTF_8));
+        out.write(CRLF);
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write(':');
+        out.write(Long.toString(value).getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(ISO_8859_1));
+            return;
+        }
+        out.write('$');
+        out.write(Integer.toString(value.length).getBytes(ISO_8859_1));
+        out.write(CRLF);
+        out.write(value);
+        out.write(CRLF);
+    }
+
+    private static void writeArray(OutputStream out, int size) throws IOException {
+        out.write('*');
+        out.write(Integer.toString(size).getBytes(ISO_8859_1));
+        out.write(CRLF);
+    }
+
+    private static long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            } else if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read(); // \n
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return {@code null} at the end of stream
+     */
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("inline commands are not supported");
+        }
+        int size = (int) readNumber(in);
+        List<byte[]> command = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (in.read() != '$') {
+                throw new IOException("bulk string expected");
+            }
+            byte[] arg = new byte[(int) readNumber(in)];
+            int read = 0;
+            while (read < arg.length) {
+                int n = in.read(arg, read, arg.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            in.read(); // \r
+            in.read(); // \n
+            command.add(arg);
+        }
+        return command;
+    }
+
+    private static int getBit(byte[] value, long offset) {
+        int index = (int) (offset >>> 3);
+        if (value == null || index >= value.length) {
+            return 0;
+        }
+        return (value[index] >>> (7 - (offset & 7))) & 1;
+    }
+
+    private static int[] range(long start, long end, int length) {
+        if (start < 0) {
+            start = Math.max(0, start + length);
+        }
+        if (end < 0) {
+            end += length;
+        }
+        end = Math.min(end, length - 1);
+        return new int[] { (int) start, (int) end };
+    }
+
+    /**
+     * @return {@code null} if the command has no key
+     */
+    private static String keyOf(String name, List<byte[]> c) {
+        if (KEYLESS.contains(name) || c.size() < 2) {
+            return null;
+        }
+        if ("EVAL".equals(name) || "EVALSHA".equals(name)) {
+            return number(c.get(2)) > 0 ? string(c.get(3)) : null;
+        }
+        return string(c.get(1));
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.incrementAndGet();
+                sockets.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            boolean asking = false;
+            List<byte[]> command;
+            while ((command = readCommand(in)) != null) {
+                String name = string(command.get(0)).toUpperCase();
+                if ("QUIT".equals(name)) {
+                    writeSimple(out, "OK");
+                    out.flush();
+                    return;
+                }
+                if ("ASKING".equals(name)) {
+                    asking = true;
+                    writeSimple(out, "OK");
+                } else {
+                    String key = keyOf(name, command);
+                    if (key != null && resets.remove(key)) {
+                        s.setSoLinger(true, 0);
+                        return;
+                    }
+                    Long delay = key == null ? null : delays.remove(key);
+                    if (delay != null) {
+                        out.flush();
+                        Thread.sleep(delay);
+                    }
+                    synchronized (lock()) {
+                        try {
+                            if (!redirect(key, asking, out)) {
+                                handle(name, command, out);
+                            }
+                        } catch (RuntimeException e) {
+                            writeError(out, "ERR " + e);
+                        }
+                    }
+                    asking = false;
+                }
+                // answer a whole pipeline at once
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // disconnected
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    /**
+     * @return {@code true} if a redirection is replied instead
+     */
+    private boolean redirect(String key, boolean asking, OutputStream out) throws IOException {
+        if (cluster == null || key == null) {
+            return false;
+        }
+        int slot = JedisClusterCRC16.getSlot(key);
+        MockRedisServer owner = cluster.slots[slot];
+        MockRedisServer importing = cluster.migrating.get(slot);
+        if (owner != this) {
+            if (asking && importing == this) {
+                return false;
+            }
+            writeError(out, "MOVED " + slot + " " + HOST + ":" + owner.getPort());
+            return true;
+        }
+        if (importing != null && !data.containsKey(key)) {
+            writeError(out, "ASK " + slot + " " + HOST + ":" + importing.getPort());
+            return true;
+        }
+        return false;
+    }
+
+    private void handle(String name, List<byte[]> c, OutputStream out) throws IOException {
+        switch (name) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "SELECT":
+                writeSimple(out, "OK");
+                break;
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                collections.clear();
+                writeSimple(out, "OK");
+                break;
+            case "CLUSTER":
+                clusterSlots(out);
+                break;
+            case "GET":
+                writeBulk(out, data.get(string(c.get(1))));
+                break;
+            case "SET":
+                data.put(string(c.get(1)), c.get(2));
+                writeSimple(out, "OK");
+                break;
+            case "INCR":
+                writeInteger(out, incrBy(string(c.get(1)), 1));
+                break;
+            case "MGET":
+                writeArray(out, c.size() - 1);
+                for (int i = 1; i < c.size(); i++) {
+                    writeBulk(out, data.get(string(c.get(i))));
+                }
+                break;
+            case "DEL": {
+                int count = 0;
+                for (int i = 1; i < c.size(); i++) {
+                    String key = string(c.get(i));
+                    count += data.remove(key) != null | collections.remove(key) != null ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "EXISTS": {
+                int count = 0;
+                for (int i = 1; i < c.size(); i++) {
+                    String key = string(c.get(i));
+                    count += data.containsKey(key) || collections.containsKey(key) ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "STRLEN": {
+                byte[] value = data.get(string(c.get(1)));
+                writeInteger(out, value == null ? 0 : value.length);
+                break;
+            }
+            case "GETBIT":
+                writeInteger(out, getBit(data.get(string(c.get(1))), number(c.get(2))));
+                break;
+            case "SETBIT":
+                writeInteger(out, setBit(c.get(1), number(c.get(2)), number(c.get(3)) != 0));
+                break;
+            case "BITCOUNT": {
+                byte[] value = data.get(string(c.get(1)));
+                int count = 0;
+                if (value != null) {
+                    int[] range = c.size() > 3
+                            ? range(number(c.get(2)), number(c.get(3)), value.length)
+                            : new int[] { 0, value.length - 1 };
+                    for (int i = range[0]; i <= range[1]; i++) {
+                        count += Integer.bitCount(value[i] & 0xFF);
+                    }
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "GETRANGE": {
+                byte[] value = data.get(string(c.get(1)));
+                if (value == null) {
+                    writeBulk(out, new byte[0]);
+                    break;
+                }
+                int[] range = range(number(c.get(2)), number(c.get(3)), value.length);
+                writeBulk(out, range[0] > range[1] ? new byte[0]
+                        : Arrays.copyOfRange(value, range[0], range[1] + 1));
+                break;
+            }
+            case "SETRANGE": {
+                String key = string(c.get(1));
+                int offset = (int) number(c.get(2));
+                byte[] patch = c.get(3);
+                byte[] value = data.get(key);
+                if (value == null || value.length < offset + patch.length) {
+                    value = Arrays.copyOf(value == null ? new byte[0] : value,
+                            offset + patch.length);
+                }
+                System.arraycopy(patch, 0, value, offset, patch.length);
+                data.put(key, value);
+                writeInteger(out, value.length);
+                break;
+            }
+            case "SADD": {
+                Map<String, byte[]> set = collection(c.get(1), true);
+                int count = 0;
+                for (byte[] member : c.subList(2, c.size())) {
+                    count += set.put(string(member), new byte[0]) == null ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "ZADD": {
+                Map<String, byte[]> zset = collection(c.get(1), true);
+                int count = 0;
+                for (int i = 2; i + 1 < c.size(); i += 2) {
+                    count += zset.put(string(c.get(i + 1)), c.get(i)) == null ? 1 : 0;
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "HSET":
+            case "HMSET": {
+                Map<String, byte[]> hash = collection(c.get(1), true);
+                int count = 0;
+                for (int i = 2; i + 1 < c.size(); i += 2) {
+                    count += hash.put(string(c.get(i)), c.get(i + 1)) == null ? 1 : 0;
+                }
+                if ("HSET".equals(name)) {
+                    writeInteger(out, count);
+                } else {
+                    writeSimple(out, "OK");
+                }
+                break;
+            }
+            case "HGETALL": {
+                Map<String, byte[]> hash = collection(c.get(1), false);
+                writeArray(out, hash.size() * 2);
+                for (Map.Entry<String, byte[]> entry : hash.entrySet()) {
+                    writeBulk(out, bytes(entry.getKey()));
+                    writeBulk(out, entry.getValue());
+                }
+                break;
+            }
+            case "HGET":
+            case "ZSCORE":
+                writeBulk(out, collection(c.get(1), false).get(string(c.get(2))));
+                break;
+            case "HDEL":
+            case "SREM":
+            case "ZREM": {
+                Map<String, byte[]> collection = collection(c.get(1), false);
+                int count = 0;
+                for (byte[] member : c.subList(2, c.size())) {
+                    count += collection.remove(string(member)) != null ? 1 : 0;
+                }
+                if (collection.isEmpty()) {
+                    collections.remove(string(c.get(1)));
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "HLEN":
+            case "SCARD":
+            case "ZCARD":
+                writeInteger(out, collection(c.get(1), false).size());
+                break;
+            case "SCAN": {
+                Set<String> keys = new TreeSet<>(data.keySet());
+                keys.addAll(collections.keySet());
+                scan(c.subList(1, c.size()), new ArrayList<>(keys),
+                        key -> singletonList(bytes(key)), out);
+                break;
+            }
+            case "HSCAN":
+            case "SSCAN":
+            case "ZSCAN": {
+                Map<String, byte[]> collection = collection(c.get(1), false);
+                scan(c.subList(2, c.size()), new ArrayList<>(new TreeSet<>(collection.keySet())),
+                        member -> "SSCAN".equals(name) ? singletonList(bytes(member))
+                                : Arrays.asList(bytes(member), collection.get(member)),
+                        out);
+                break;
+            }
+            case "SISMEMBER":
+                writeInteger(out,
+                        collection(c.get(1), false).containsKey(string(c.get(2))) ? 1 : 0);
+                break;
+            case "EVAL":
+            case "EVALSHA":
+            case "SCRIPT":
+                script(name, c, out);
+                break;
+            default:
+                writeError(out, "ERR unknown command '" + name + "'");
+        }
+    }
+
+    private void clusterSlots(OutputStream out) throws IOException {
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        for (int slot = 1; slot <= HASHSLOTS; slot++) {
+            if (slot == HASHSLOTS || cluster.slots[slot] != cluster.slots[start]) {
+                ranges.add(new int[] { start, slot - 1 });
+                start = slot;
+            }
+        }
+        writeArray(out, ranges.size());
+        for (int[] range : ranges) {
+            MockRedisServer node = cluster.slots[range[0]];
+            writeArray(out, 3);
+            writeInteger(out, range[0]);
+            writeInteger(out, range[1]);
+            writeArray(out, 3);
+            writeBulk(out, HOST.getBytes(ISO_8859_1));
+            writeInteger(out, node.getPort());
+            writeBulk(out, ("node" + node.getPort()).getBytes(ISO_8859_1));
+        }
+    }
+
+    /**
+     * reply a page of {@code COUNT} (10 by default) of {@code names} from the cursor, which is
+     * an index of {@code names}. names not matching {@code MATCH} are skipped after counting,
+     * like redis does.
+     *
+     * @param args the cursor and options
+     * @param items the elements of the reply for a name
+     */
+    private static void scan(List<byte[]> args, List<String> names,
+            Function<String, List<byte[]>> items, OutputStream out) throws IOException {
+        int cursor = (int) number(args.get(0));
+        int count = 10;
+        Pattern match = null;
+        for (int i = 1; i + 1 < args.size(); i += 2) {
+            String option = string(args.get(i)).toUpperCase();
+            if ("COUNT".equals(option)) {
+                count = (int) number(args.get(i + 1));
+            } else if ("MATCH".equals(option)) {
+                match = Pattern.compile(string(args.get(i + 1)).replace("?", ".")
+                        .replace("*", ".*"));
+            }
+        }
+        int end = Math.min(cursor + count, names.size());
+        List<byte[]> page = new ArrayList<>();
+        for (String name : names.subList(Math.min(cursor, end), end)) {
+            if (match == null || match.matcher(name).matches()) {
+                page.addAll(items.apply(name));
+            }
+        }
+        writeArray(out, 2);
+        writeBulk(out, bytes(Integer.toString(end < names.size() ? end : 0)));
+        writeArray(out, page.size());
+        for (byte[] item : page) {
+            writeBulk(out, item);
+        }
+    }
+
+    /**
+     * @return an empty map not kept by this server if {@code key} is absent and not created
+     */
+    private Map<String, byte[]> collection(byte[] key, boolean create) {
+        Map<String, byte[]> collection = collections.get(string(key));
+        if (collection == null) {
+            collection = new HashMap<>();
+            if (create) {
+                collections.put(string(key), collection);
+            }
+        }
+        return collection;
+    }
+
+    private long incrBy(String key, long increment) {
+        byte[] value = data.get(key);
+        long result = (value == null ? 0 : number(value)) + increment;
+        data.put(key, bytes(Long.toString(result)));
+        return result;
+    }
+
+    private int setBit(byte[] key, long offset, boolean bit) {
+        byte[] value = data.get(string(key));
+        int index = (int) (offset >>> 3);
+        if (value == null || index >= value.length) {
+            value = Arrays.copyOf(value == null ? new byte[0] : value, index + 1);
+            data.put(string(key), value);
+        }
+        int old = getBit(value, offset);
+        int mask = 0x80 >>> (offset & 7);
+        value[index] = (byte) (bit ? value[index] | mask : value[index] & ~mask);
+        return old;
+    }
+
+    private void script(String name, List<byte[]> c, OutputStream out) throws IOException {
+        byte[] body;
+        if ("SCRIPT".equals(name)) {
+            String sub = string(c.get(1)).toUpperCase();
+            if ("LOAD".equals(sub)) {
+                String sha = Hashing.sha1().hashBytes(c.get(2)).toString();
+                scripts.put(sha, c.get(2));
+                writeBulk(out, sha.getBytes(ISO_8859_1));
+            } else if ("EXISTS".equals(sub)) {
+                writeArray(out, c.size() - 2);
+                for (int i = 2; i < c.size(); i++) {
+                    writeInteger(out, scripts.containsKey(string(c.get(i))) ? 1 : 0);
+                }
+            } else {
+                scripts.clear();
+                writeSimple(out, "OK");
+            }
+            return;
+        } else if ("EVALSHA".equals(name)) {
+            body = scripts.get(string(c.get(1)));
+            if (body == null) {
+                writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+                return;
+            }
+        } else {
+            body = c.get(1);
+            scripts.put(Hashing.sha1().hashBytes(body).toString(), body);
+        }
+        String script = string(body);
+        int keys = (int) number(c.get(2));
+        byte[] key = c.get(3);
+        List<byte[]> argv = c.subList(3 + keys, c.size());
+        if (keys == 1 && script.contains("'GETBIT'")) {
+            writeArray(out, argv.size());
+            byte[] value = data.get(string(key));
+            for (byte[] offset : argv) {
+                writeInteger(out, getBit(value, number(offset)));
+            }
+        } else if (keys == 1 && script.contains("'SETBIT'")) {
+            boolean bit = number(argv.get(0)) != 0;
+            writeArray(out, argv.size() - 1);
+            for (byte[] offset : argv.subList(1, argv.size())) {
+                writeInteger(out, setBit(key, number(offset), bit));
+            }
+        } else if (keys == 1 && script.contains("'INCRBY'")) {
+            writeInteger(out, incrBy(string(key), number(argv.get(0))));
+        } else if (keys == 1 && script.contains("'GET'")) {
+            writeBulk(out, data.get(string(key)));
+        } else {
+            writeError(out, "ERR script not supported by the mock server");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        // like a server going down, clients see their connections closed
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private static final class Cluster {
+
+        private final MockRedisServer[] slots = new MockRedisServer[HASHSLOTS];
+        private final Map<Integer, MockRedisServer> migrating = new HashMap<>();
+        private final List<MockRedisServer> nodes = new ArrayList<>();
+    }
+}
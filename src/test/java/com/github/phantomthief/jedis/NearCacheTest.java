@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Function.identity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class NearCacheTest {
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private Jedis other;
+    private JedisHelper<Pipeline, Jedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        // writes the helper doesn't see
+        other = new Jedis("127.0.0.1", server.getPort());
+        helper = JedisHelper.newBuilder(() -> pool) //
+                .enableNearCache(1 << 20, 1, MINUTES, key -> key.startsWith("cached")) //
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        other.close();
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testServedFromCache() {
+        other.set("cached1", "a");
+        assertEquals("a", helper.get().get("cached1"));
+        other.set("cached1", "b");
+        assertEquals("a", helper.get().get("cached1"));
+        assertTrue(helper.getNearCacheStats().hitCount() > 0);
+
+        other.set("plain", "a");
+        assertEquals("a", helper.get().get("plain"));
+        other.set("plain", "b");
+        assertEquals("b", helper.get().get("plain"));
+    }
+
+    @Test
+    public void testInvalidatedByWrites() {
+        assertNull(helper.get().get("cached1"));
+        helper.get().set("cached1", "a");
+        assertEquals("a", helper.get().get("cached1"));
+        helper.getBinary().set("cached1".getBytes(UTF_8), "1".getBytes(UTF_8));
+        assertEquals("1", helper.get().get("cached1"));
+        helper.get().incr("cached1");
+        assertEquals("2", helper.get().get("cached1"));
+        helper.get().del("cached1");
+        assertNull(helper.get().get("cached1"));
+    }
+
+    @Test
+    public void testInvalidateByHand() {
+        other.set("cached1", "a");
+        assertEquals("a", helper.get().get("cached1"));
+        other.set("cached1", "b");
+        helper.invalidateNearCache("cached1");
+        assertEquals("b", helper.get().get("cached1"));
+        other.set("cached1", "c");
+        helper.invalidateNearCache("cached1".getBytes(UTF_8));
+        assertEquals("c", helper.get().get("cached1"));
+    }
+
+    @Test
+    public void testUnrelatedWriteDuringFill() throws Exception {
+        other.set("cached1", "a");
+        server.delayNext("cached1", 500);
+        CompletableFuture<String> fill = CompletableFuture
+                .supplyAsync(() -> helper.get().get("cached1"));
+        Thread.sleep(100);
+        helper.get().set("cached2", "x");
+        helper.get().set("plain", "x");
+        assertEquals("a", fill.get());
+        other.set("cached1", "b");
+        assertEquals("a", helper.get().get("cached1"));
+
+        other.set("cached3", "a");
+        helper.invalidateNearCache("cached1");
+        server.delayNext("cached1", 500);
+        CompletableFuture<?> pipelineFill = CompletableFuture.supplyAsync(() -> helper
+                .pipelineGet(ImmutableList.of("cached1", "cached3"), identity(), identity()));
+        Thread.sleep(100);
+        helper.get().set("cached2", "y");
+        pipelineFill.get();
+        other.set("cached1", "c");
+        other.set("cached3", "c");
+        assertEquals("a", helper.get().get("cached3"));
+        assertEquals("b", helper.get().get("cached1"));
+    }
+
+    @Test
+    public void testExpiresPerReply() throws Exception {
+        JedisHelper<Pipeline, Jedis> shortLived = JedisHelper.newBuilder(() -> pool) //
+                .enableNearCache(1 << 20, 1, SECONDS, key -> true) //
+                .build();
+        other.set("key", "a");
+        assertEquals("a", shortLived.get().get("key"));
+        other.set("key", "b");
+        Thread.sleep(600);
+        // fills another reply of the same entry
+        assertEquals("b", new String(shortLived.getBinary().get("key".getBytes(UTF_8)), UTF_8));
+        assertEquals("a", shortLived.get().get("key"));
+        Thread.sleep(600);
+        assertEquals("b", shortLived.get().get("key"));
+    }
+
+    @Test
+    public void testCodecWrites() {
+        CodecCommands<Pipeline, String, String> codec = helper.withCodec(
+                RedisCodec.ofStringKey(value -> value.getBytes(UTF_8),
+                        bytes -> new String(bytes, UTF_8)));
+        helper.get().set("cached1", "a");
+        helper.get().set("cached2", "a");
+        assertEquals("a", helper.get().get("cached1"));
+        assertEquals("a", helper.get().get("cached2"));
+        codec.set("cached1", "b");
+        assertEquals("b", helper.get().get("cached1"));
+        // sent by pipeline, invalidated by the codec
+        codec.mset(ImmutableMap.of("cached1", "c", "cached2", "c"));
+        assertEquals("c", helper.get().get("cached1"));
+        assertEquals("c", helper.get().get("cached2"));
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+
+public class PipelineTest {
+
+    private final List<String> keys = IntStream.range(0, 10).mapToObj(i -> "key" + i)
+            .collect(toList());
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisPool deadPool;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        try (MockRedisServer dead = new MockRedisServer()) {
+            deadPool = new JedisPool("127.0.0.1", dead.getPort());
+        }
+        executor = Executors.newCachedThreadPool();
+        JedisHelper.newBuilder(() -> pool).build().pipeline(keys, (p, k) -> p.set(k, "v" + k));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        pool.close();
+        deadPool.close();
+        server.close();
+    }
+
+    @Test
+    public void testRetryFailedBorrows() {
+        AtomicInteger borrows = new AtomicInteger();
+        // the first two borrows fail to connect
+        JedisHelper<Pipeline, Jedis> noRetry = JedisHelper.newBuilder(
+                () -> borrows.getAndIncrement() < 2 ? deadPool : pool) //
+                .withPipelinePartitionSize(3) //
+                .build();
+        PipelineResult<String, String> result = noRetry.pipelineResult(keys, PipelineBase::get);
+        assertEquals(keys.subList(0, 6), result.getFailedKeys());
+        assertEquals(4, result.getResults().size());
+
+        borrows.set(0);
+        JedisHelper<Pipeline, Jedis> retry = JedisHelper.newBuilder(
+                () -> borrows.getAndIncrement() < 2 ? deadPool : pool) //
+                .withPipelinePartitionSize(3) //
+                .withPipelineRetry(3, 5, SECONDS) //
+                .enableParallelPipeline(2, executor) //
+                .build();
+        PipelineResult<String, String> retried = retry.pipelineResult(keys, PipelineBase::get);
+        assertTrue(retried.isComplete());
+        keys.forEach(key -> assertEquals("v" + key, retried.getResults().get(key)));
+    }
+
+    @Test
+    public void testNoRetryAfterSent() {
+        AtomicInteger sent = new AtomicInteger();
+        JedisHelper<Pipeline, Jedis> retry = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(3) //
+                .withPipelineRetry(3, 5, SECONDS) //
+                .build();
+        PipelineResult<String, String> result = retry.pipelineResult(keys, (p, k) -> {
+            sent.incrementAndGet();
+            return p.get(k);
+        }, value -> {
+            throw new IllegalStateException();
+        });
+        assertEquals(keys.size(), sent.get());
+        assertEquals(keys.size(), result.getFailedKeys().size());
+    }
+
+    @Test
+    public void testRetryBrokenConnection() {
+        JedisHelper<Pipeline, Jedis> retry = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(3) //
+                .withPipelineRetry(3, 5, SECONDS) //
+                .build();
+        server.resetNext("key4");
+        PipelineResult<String, String> result = retry.pipelineResult(keys, PipelineBase::get);
+        assertEquals(keys.subList(3, 6), result.getFailedKeys());
+
+        server.resetNext("key4");
+        result = retry.pipelineResult(keys, PipelineBase::get, identity(), true);
+        assertTrue(result.getFailedKeys().isEmpty());
+        assertEquals("vkey4", result.getResults().get("key4"));
+        assertEquals(keys.size(), result.getResults().size());
+
+        server.resetNext("key4");
+        result = retry.hedgedPipeline(keys, PipelineBase::get);
+        assertTrue(result.getFailedKeys().isEmpty());
+        assertEquals(keys.size(), result.getResults().size());
+    }
+
+    @Test
+    public void testHedgeSlowPartition() {
+        JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(3) //
+                .withAsyncExecutor(executor) //
+                .build();
+        BiFunction<Pipeline, String, Response<String>> function = PipelineBase::get;
+        // enough latencies of the call site to hedge
+        for (int i = 0; i < 40; i++) {
+            assertTrue(helper.hedgedPipeline(keys, function).isComplete());
+        }
+        server.delayNext("key4", SECONDS.toMillis(3));
+        long start = System.nanoTime();
+        PipelineResult<String, String> result = helper.hedgedPipeline(keys, function);
+        long elapsed = System.nanoTime() - start;
+        assertTrue(result.isComplete());
+        keys.forEach(key -> assertEquals("v" + key, result.getResults().get(key)));
+        assertTrue(elapsed + "ns", elapsed < SECONDS.toNanos(2));
+        // sent again on another connection
+        assertTrue(server.getConnections() > 1);
+    }
+
+    @Test
+    public void testFailedPipelineLeavesNoReplies() {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(1);
+        try (JedisPool single = new JedisPool(config, "127.0.0.1", server.getPort())) {
+            // tracked pipelines are not drained by jedis when the connection is returned
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> single) //
+                    .enableHotKeyTracking(HotKeyTracker.newBuilder().sampleOneIn(1).build()) //
+                    .build();
+            PipelineResult<String, String> failed = helper.pipelineResult(keys, (p, k) -> {
+                if ("key5".equals(k)) {
+                    throw new IllegalStateException();
+                }
+                return p.get(k);
+            });
+            assertFalse(failed.isComplete());
+
+            Map<String, String> values = helper.pipeline(keys, PipelineBase::get);
+            keys.forEach(key -> assertEquals("v" + key, values.get(key)));
+            assertEquals("vkey9", helper.get().get("key9"));
+        }
+    }
+
+    @Test
+    public void testStreamTakesKeysAsConsumed() {
+        JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(5) //
+                .enableParallelPipeline(3, executor) //
+                .build();
+        AtomicInteger taken = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        // endless keys
+        Stream<String> endless = Stream.iterate(0, i -> i + 1) //
+                .peek(i -> taken.incrementAndGet()) //
+                .map(i -> "key" + i) //
+                .onClose(() -> closed.set(true));
+        try (Stream<Entry<String, Boolean>> results = helper.pipelineStream(endless,
+                PipelineBase::exists)) {
+            List<Entry<String, Boolean>> first = results.limit(12).collect(toList());
+            assertEquals(12, first.size());
+            first.forEach(entry -> assertEquals(
+                    Integer.parseInt(entry.getKey().substring(3)) < keys.size(),
+                    entry.getValue()));
+            // 3 partitions consumed, and up to 3 in flight
+            assertTrue(taken.get() + " keys taken", taken.get() <= 6 * 5);
+        }
+        assertTrue(closed.get());
+
+        List<String> many = IntStream.range(0, 1000).mapToObj(i -> "key" + i).collect(toList());
+        AtomicInteger existing = new AtomicInteger();
+        AtomicInteger all = new AtomicInteger();
+        helper.pipelineForEach(many, PipelineBase::exists, (key, exists) -> {
+            all.incrementAndGet();
+            if (exists) {
+                existing.incrementAndGet();
+            }
+        });
+        assertEquals(many.size(), all.get());
+        assertEquals(keys.size(), existing.get());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.LongHashSet;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class RedisBitmapTest {
+
+    private final Random random = new Random(0);
+
+    /**
+     * @return set bits of {@code bytes} read bit by bit, the highest bit of a byte first
+     */
+    private static long[] bits(byte[] bytes, int offset) {
+        return LongStream.range(0, (bytes.length - offset) * 8L)
+                .filter(bit -> (bytes[offset + (int) (bit / 8)] & (0x80 >>> (bit % 8))) != 0)
+                .toArray();
+    }
+
+    @Test
+    public void testBitOrder() {
+        RedisBitmap bitmap = RedisBitmap.wrap(new byte[] { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 1 });
+        assertEquals(72, bitmap.length());
+        assertTrue(bitmap.get(0));
+        assertFalse(bitmap.get(7));
+        assertTrue(bitmap.get(71));
+        assertFalse(bitmap.get(72));
+        assertFalse(bitmap.get(-1));
+        assertArrayEquals(new long[] { 0, 71 }, bitmap.stream().toArray());
+        assertEquals(0x8000000000000000L, RedisBitmap.readWord(new byte[] { (byte) 0x80 }, 0));
+        assertEquals(0x0100000000000000L, RedisBitmap.readWord(new byte[] { 2, 1 }, 1));
+    }
+
+    @Test
+    public void testEmpty() {
+        for (RedisBitmap empty : new RedisBitmap[] { RedisBitmap.wrap((byte[]) null),
+                RedisBitmap.wrap(new byte[0]), RedisBitmap.wrap(new byte[3]),
+                RedisBitmap.wrap(ByteBuffer.allocate(0)) }) {
+            assertEquals(0, empty.cardinality());
+            assertEquals(-1, empty.nextSetBit(0));
+            assertFalse(empty.iterator().hasNext());
+            assertEquals(new BitSet(), empty.toBitSet());
+            assertEquals(0, empty.toIntArray().length);
+        }
+    }
+
+    @Test
+    public void testRandomBitmaps() {
+        for (int i = 0; i < 200; i++) {
+            // lengths not a multiple of a word, with and without an offset in the buffer
+            byte[] bytes = new byte[random.nextInt(40)];
+            random.nextBytes(bytes);
+            for (int j = 0; j < bytes.length; j++) {
+                if (random.nextInt(3) == 0) {
+                    bytes[j] = 0;
+                }
+            }
+            int offset = bytes.length > 0 ? random.nextInt(bytes.length) : 0;
+            long[] expected = bits(bytes, offset);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(offset);
+            RedisBitmap bitmap = offset == 0 && random.nextBoolean() ? RedisBitmap.wrap(bytes)
+                    : RedisBitmap.wrap(buffer);
+            assertEquals(offset, buffer.position());
+            assertBitmap(expected, bitmap);
+        }
+    }
+
+    private void assertBitmap(long[] expected, RedisBitmap bitmap) {
+        assertEquals(expected.length, bitmap.cardinality());
+        assertArrayEquals(expected, bitmap.stream().toArray());
+        BitSet bitSet = new BitSet();
+        IntHashSet intSet = new IntHashSet();
+        LongHashSet longSet = new LongHashSet();
+        for (long bit : expected) {
+            bitSet.set((int) bit);
+            intSet.add((int) bit);
+            longSet.add(bit);
+            assertTrue(bitmap.get(bit));
+        }
+        assertEquals(bitSet, bitmap.toBitSet());
+        assertEquals(intSet, bitmap.toIntSet());
+        assertEquals(longSet, bitmap.toLongSet());
+        assertArrayEquals(bitSet.stream().toArray(), bitmap.toIntArray());
+        LongStream.Builder consumed = LongStream.builder();
+        bitmap.forEachSetBit(consumed);
+        assertArrayEquals(expected, consumed.build().toArray());
+        for (long from = 0; from <= bitmap.length(); from += 1 + random.nextInt(20)) {
+            int next = bitSet.nextSetBit((int) from);
+            assertEquals(from + "", next, bitmap.nextSetBit(from));
+        }
+        for (long bit = 0; bit < bitmap.length(); bit++) {
+            assertEquals(bitSet.get((int) bit), bitmap.get(bit));
+        }
+    }
+
+    @Test
+    public void testValuesOfSetbit() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool).build();
+            long[] bits = { 0, 1, 7, 8, 63, 64, 65, 100, 200 };
+            helper.pipeline(LongStream.of(bits).boxed().collect(toList()),
+                    (p, bit) -> p.setbit("bitmap", bit, true));
+            byte[] value = helper.getBinary().get("bitmap".getBytes(UTF_8));
+            assertBitmap(bits, RedisBitmap.wrap(value));
+            assertEquals(RedisBitmap.wrap(value).toBitSet(), JedisUtils.toBitSet(value));
+            assertEquals(RedisBitmap.wrap(value).toIntSet(), JedisUtils.toIntSet(value));
+        }
+    }
+}
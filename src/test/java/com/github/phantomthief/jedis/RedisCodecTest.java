@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class RedisCodecTest {
+
+    private static final RedisCodec<String, String> STRING = RedisCodec
+            .ofStringKey(value -> value.getBytes(UTF_8), bytes -> new String(bytes, UTF_8));
+    private static final RedisCodec<String, String> COMPRESSED = RedisCodec.compressed(STRING,
+            64);
+
+    @Test
+    public void testCompressedRoundTrip() {
+        String small = "small";
+        byte[] plain = COMPRESSED.encodeValue(small);
+        assertEquals(small.length() + 1, plain.length);
+        assertEquals(0, plain[0]);
+        assertEquals(small, COMPRESSED.decodeValue(plain));
+
+        String large = Strings.repeat("compressible ", 1000);
+        byte[] deflated = COMPRESSED.encodeValue(large);
+        assertEquals(1, deflated[0]);
+        assertTrue(deflated.length < large.length() / 10);
+        assertEquals(large, COMPRESSED.decodeValue(deflated));
+
+        byte[] random = new byte[1000];
+        new Random(0).nextBytes(random);
+        RedisCodec<String, byte[]> binary = RedisCodec
+                .compressed(RedisCodec.ofStringKey(value -> value, bytes -> bytes), 64);
+        byte[] incompressible = binary.encodeValue(random);
+        assertEquals(0, incompressible[0]);
+        assertEquals(random.length + 1, incompressible.length);
+
+        assertEquals("", COMPRESSED.decodeValue(COMPRESSED.encodeValue("")));
+    }
+
+    @Test
+    public void testInvalidCompressedValues() {
+        byte[] deflated = COMPRESSED.encodeValue(Strings.repeat("a", 1000));
+        byte[] wrongLength = deflated.clone();
+        wrongLength[4]++;
+        byte[] truncated = new byte[7];
+        System.arraycopy(deflated, 0, truncated, 0, truncated.length);
+        for (byte[] invalid : ImmutableList.of(new byte[0], new byte[] { 2, 'a' },
+                new byte[] { 1, 0, 0 }, new byte[] { 1, 0x7F, 0, 0, 0, 0 }, wrongLength,
+                truncated)) {
+            try {
+                COMPRESSED.decodeValue(invalid);
+                fail();
+            } catch (JedisDataException expected) {
+                // expected
+            }
+        }
+        // still usable after failures
+        assertEquals(Strings.repeat("a", 1000), COMPRESSED.decodeValue(deflated));
+    }
+
+    @Test
+    public void testConcurrentRoundTrips() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String value = Strings.repeat("value" + i, 100 + i);
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        assertEquals(value,
+                                COMPRESSED.decodeValue(COMPRESSED.encodeValue(value)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCodecCommands() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool).build();
+            CodecCommands<Pipeline, String, String> codec = helper.withCodec(COMPRESSED);
+            String large = Strings.repeat("large", 100);
+            codec.set("a", "small");
+            codec.set("b", large);
+            assertEquals("small", codec.get("a"));
+            assertEquals(large, codec.get("b"));
+            assertNull(codec.get("missing"));
+            assertTrue(helper.getBinary().get("b".getBytes(UTF_8)).length < large.length());
+
+            codec.mset(ImmutableMap.of("c", large, "d", "d"));
+            assertEquals(ImmutableMap.of("a", "small", "c", large, "d", "d"),
+                    codec.mget(ImmutableList.of("a", "c", "d", "missing")));
+            assertEquals(ImmutableMap.of("a", "small", "b", large),
+                    codec.pipeline(ImmutableList.of("a", "b", "missing"), (p, k) -> p.get(k)));
+        }
+    }
+}
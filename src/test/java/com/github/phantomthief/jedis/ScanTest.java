@@ -0,0 +1,267 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static java.lang.Thread.State.TIMED_WAITING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPipeline;
+import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class ScanTest {
+
+    private final List<String> keys = IntStream.range(0, 500).mapToObj(i -> "key" + i)
+            .collect(toList());
+
+    private List<MockRedisServer> servers;
+    private ShardedJedisPool pool;
+    private ExecutorService executor;
+    private JedisHelper<ShardedJedisPipeline, ShardedJedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        servers = new ArrayList<>();
+        List<JedisShardInfo> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MockRedisServer server = new MockRedisServer();
+            servers.add(server);
+            shards.add(new JedisShardInfo("127.0.0.1", server.getPort()));
+        }
+        pool = new ShardedJedisPool(new GenericObjectPoolConfig(), shards);
+        executor = Executors.newFixedThreadPool(3);
+        helper = JedisHelper.newShardedBuilder(() -> pool) //
+                .withAsyncExecutor(executor) //
+                .build();
+        helper.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        pool.close();
+        for (MockRedisServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testShardedScan() {
+        for (MockRedisServer server : servers) {
+            // every shard has many pages
+            assertTrue(keys.stream().filter(key -> server.getLocal(key) != null).count() > 50);
+        }
+        try (Stream<String> scan = helper.scan(new ScanParams().count(20))) {
+            List<String> scanned = scan.collect(toList());
+            assertEquals(keys.size(), scanned.size());
+            assertEquals(keys.stream().collect(toSet()), scanned.stream().collect(toSet()));
+        }
+        try (Stream<String> scan = helper.scan(new ScanParams().match("key4?"))) {
+            assertEquals(keys.stream().filter(key -> key.matches("key4.")).collect(toSet()),
+                    scan.collect(toSet()));
+        }
+        try (Stream<byte[]> scan = helper.scanBinary(new ScanParams())) {
+            assertEquals(keys.stream().collect(toSet()),
+                    scan.map(key -> new String(key, UTF_8)).collect(toSet()));
+        }
+    }
+
+    @Test
+    public void testClusterScan() throws IOException {
+        List<MockRedisServer> nodes = MockRedisServer.cluster(3);
+        try (ClusterJedisPool clusterPool = new ClusterJedisPool(
+                singleton(nodes.get(0).getHostAndPort()))) {
+            JedisHelper<ClusterJedisPipeline, ClusterJedis> cluster = JedisHelper
+                    .newClusterBuilder(() -> clusterPool).build();
+            cluster.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+            try (Stream<String> scan = cluster.scan(new ScanParams().count(20))) {
+                List<String> scanned = scan.collect(toList());
+                assertEquals(keys.size(), scanned.size());
+                assertEquals(keys.stream().collect(toSet()), scanned.stream().collect(toSet()));
+            }
+        } finally {
+            for (MockRedisServer node : nodes) {
+                node.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCloseStopsProducers() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            try (Stream<String> scan = helper.scan(new ScanParams().count(1))) {
+                assertEquals(3, scan.limit(3).count());
+            }
+        }
+        // producers left waiting for room would hold all threads of the executor, and the
+        // executor is shared, so they must not be stopped by interrupts
+        for (int i = 0; i < 10; i++) {
+            assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get(10,
+                    SECONDS));
+        }
+    }
+
+    @Test
+    public void testDroppedStreamStopsProducers() throws Exception {
+        // a producer of every shard is left waiting for room
+        assertEquals(3, helper.scan(new ScanParams().count(1)).limit(3).count());
+        for (int i = 0; i < 100; i++) {
+            System.gc();
+            try {
+                assertEquals("done", executor.submit(() -> "done").get(100, MILLISECONDS));
+                return;
+            } catch (TimeoutException e) {
+                // not collected yet
+            }
+        }
+        fail("producers of dropped streams still hold the executor");
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        Thread[] producer = new Thread[1];
+        ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+            producer[0] = new Thread(r);
+            producer[0].setDaemon(true);
+            return producer[0];
+        });
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool single = new JedisPool("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> plain = JedisHelper.newBuilder(() -> single).build();
+            JedisHelper<Pipeline, Jedis> prefetch = JedisHelper.newBuilder(() -> single) //
+                    .withScanPrefetch(2) //
+                    .withAsyncExecutor(prefetchExecutor) //
+                    .build();
+            plain.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+            fillCollections(plain);
+            for (JedisHelper<Pipeline, Jedis> h : ImmutableList.of(plain, prefetch)) {
+                try (Stream<String> scan = h.scan(new ScanParams())) {
+                    assertEquals(keys.size() + 3, scan.count());
+                }
+                try (Stream<Entry<String, String>> scan = h.hscan("hash")) {
+                    assertEquals(100, scan.count());
+                }
+                try (Stream<String> scan = h.sscan("set")) {
+                    assertEquals(100, scan.count());
+                }
+                try (Stream<Tuple> scan = h.zscan("zset")) {
+                    assertEquals(100, scan.count());
+                }
+            }
+
+            // pages are read ahead until the queue of 2 pages is full
+            try (Stream<String> scan = prefetch.sscan("set")) {
+                Iterator<String> iterator = scan.iterator();
+                iterator.next();
+                while (producer[0].getState() != TIMED_WAITING) {
+                    Thread.sleep(10);
+                }
+                plain.get().del("set");
+                int left = 1;
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    left++;
+                }
+                // the current page and at least the 2 pages queued, the one waiting for room
+                // may have been fetched before the removal too
+                assertTrue(String.valueOf(left), left == 30 || left == 40);
+            }
+        } finally {
+            prefetchExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testScanWithValues() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool single = new JedisPool("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> plain = JedisHelper.newBuilder(() -> single) //
+                    .withPipelinePartitionSize(7) //
+                    .build();
+            plain.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+            try (Stream<Entry<String, String>> scan = plain
+                    .scanWithValues(new ScanParams().count(20), PipelineBase::get)) {
+                Iterator<Entry<String, String>> iterator = scan.iterator();
+                Map<String, String> values = new HashMap<>();
+                Entry<String, String> first = iterator.next();
+                values.put(first.getKey(), first.getValue());
+                // keys gone before their values are read are skipped
+                plain.get().del("key99");
+                iterator.forEachRemaining(entry -> values.put(entry.getKey(), entry.getValue()));
+                assertEquals(keys.size() - 1, values.size());
+                values.forEach((key, value) -> assertEquals("v" + key, value));
+            }
+
+            fillCollections(plain);
+            try (Stream<Entry<String, Map<String, String>>> scan = plain
+                    .scanWithValues(new ScanParams().match("h*"), PipelineBase::hgetAll)) {
+                List<Entry<String, Map<String, String>>> hashes = scan.collect(toList());
+                assertEquals(1, hashes.size());
+                assertEquals("hash", hashes.get(0).getKey());
+                assertEquals("value7", hashes.get(0).getValue().get("field7"));
+            }
+        }
+    }
+
+    private static void fillCollections(JedisHelper<Pipeline, Jedis> helper) {
+        Map<String, String> hash = new HashMap<>();
+        Map<String, Double> zset = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            hash.put("field" + i, "value" + i);
+            helper.get().sadd("set", "member" + i);
+            zset.put("member" + i, (double) i);
+        }
+        helper.get().hmset("hash", hash);
+        helper.get().zadd("zset", zset);
+    }
+
+    @Test
+    public void testFailedShard() throws IOException {
+        servers.get(1).close();
+        try (Stream<String> scan = helper.scan(new ScanParams())) {
+            Set<String> scanned = scan.collect(toSet());
+            fail("scanned " + scanned.size() + " keys of a failed shard");
+        } catch (JedisConnectionException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static redis.clients.jedis.BinaryJedisCluster.HASHSLOTS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class ScriptTest {
+
+    private static final RedisScript INCRBY = RedisScript
+            .of("return redis.call('INCRBY', KEYS[1], ARGV[1])");
+    private static final RedisScript GET = RedisScript.of("return redis.call('GET', KEYS[1])");
+    private static final RedisScript UNSUPPORTED = RedisScript.of("return 1");
+
+    private final List<String> keys = IntStream.range(0, 50).mapToObj(i -> "key" + i)
+            .collect(toList());
+
+    @Test
+    public void testSha1() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            assertEquals(jedis.scriptLoad(INCRBY.getSource()), INCRBY.getSha1());
+        }
+    }
+
+    @Test
+    public void testEvalLoadsScript() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort());
+                Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool).build();
+            assertFalse(jedis.scriptExists(INCRBY.getSha1()));
+            assertEquals(5L, helper.eval(INCRBY, singletonList("a"), singletonList("5")));
+            assertTrue(jedis.scriptExists(INCRBY.getSha1()));
+            assertEquals(7L, helper.eval(INCRBY, singletonList("a"), singletonList("2")));
+            jedis.scriptFlush();
+            assertEquals(8L, helper.eval(INCRBY, singletonList("a"), singletonList("1")));
+            assertEquals("8", helper.eval(GET, singletonList("a"), emptyList()));
+            assertTrue(jedis.scriptExists(INCRBY.getSha1()));
+            try {
+                helper.eval(UNSUPPORTED, emptyList(), emptyList());
+                fail();
+            } catch (JedisDataException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testEvalPipeline() throws IOException {
+        try (MockRedisServer server = new MockRedisServer();
+                JedisPool pool = new JedisPool("127.0.0.1", server.getPort());
+                Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            JedisHelper<Pipeline, Jedis> helper = JedisHelper.newBuilder(() -> pool) //
+                    .withPipelinePartitionSize(7) //
+                    .build();
+            assertIncrements(helper, 1);
+            jedis.scriptFlush();
+            assertIncrements(helper, 2);
+            Map<String, Long> values = helper.evalPipeline(GET, keys, key -> emptyList(),
+                    value -> Long.valueOf((String) value));
+            keys.forEach(key -> assertEquals(2 * key.length(), (long) values.get(key)));
+            // replies of partitions with a failed script are absent
+            assertTrue(helper.evalPipeline(UNSUPPORTED, keys, key -> emptyList()).isEmpty());
+        }
+    }
+
+    @Test
+    public void testShardedEvalPipeline() throws IOException {
+        List<MockRedisServer> servers = new ArrayList<>();
+        List<JedisShardInfo> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            servers.add(new MockRedisServer());
+            shards.add(new JedisShardInfo("127.0.0.1", servers.get(i).getPort()));
+        }
+        try (ShardedJedisPool pool = new ShardedJedisPool(new GenericObjectPoolConfig(),
+                shards)) {
+            JedisHelper<?, ?> helper = JedisHelper.newShardedBuilder(() -> pool) //
+                    .withPipelinePartitionSize(7) //
+                    .build();
+            assertIncrements(helper, 1);
+            for (MockRedisServer server : servers) {
+                server.scriptFlush();
+            }
+            assertIncrements(helper, 2);
+            assertEquals(2L, helper.eval(INCRBY, singletonList("other"), singletonList("2")));
+            for (String key : keys) {
+                assertEquals(String.valueOf(2 * key.length()), helper.get().get(key));
+            }
+            assertEquals("2", helper.get().get("other"));
+        } finally {
+            for (MockRedisServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void testClusterEvalPipeline() throws IOException {
+        List<MockRedisServer> nodes = MockRedisServer.cluster(3);
+        try (ClusterJedisPool pool = new ClusterJedisPool(
+                singleton(nodes.get(0).getHostAndPort()))) {
+            JedisHelper<?, ?> helper = JedisHelper.newClusterBuilder(() -> pool) //
+                    .withPipelinePartitionSize(7) //
+                    .build();
+            assertIncrements(helper, 1);
+            // redirected by MOVED, to a node without the script
+            nodes.get(0).moveSlots(0, HASHSLOTS / 3 - 1, nodes.get(2));
+            nodes.get(2).scriptFlush();
+            assertIncrements(helper, 2);
+            assertEquals(2L, helper.eval(INCRBY, singletonList("other"), singletonList("2")));
+            for (String key : keys) {
+                assertEquals(String.valueOf(2 * key.length()), helper.get().get(key));
+            }
+        } finally {
+            for (MockRedisServer node : nodes) {
+                node.close();
+            }
+        }
+    }
+
+    /**
+     * increment each key by its length for the {@code times}-th time
+     */
+    private void assertIncrements(JedisHelper<?, ?> helper, int times) {
+        Map<String, Object> values = helper.evalPipeline(INCRBY, keys,
+                key -> singletonList(String.valueOf(key.length())));
+        assertEquals(keys.size(), values.size());
+        keys.forEach(key -> assertEquals((long) times * key.length(), values.get(key)));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class SessionTest {
+
+    private final List<String> keys = IntStream.range(0, 50).mapToObj(i -> "key" + i)
+            .collect(toList());
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisHelper<Pipeline, Jedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        helper = JedisHelper.newBuilder(() -> pool) //
+                .withPipelinePartitionSize(7) //
+                .withExceptionHandler((p, e) -> failures.incrementAndGet()) //
+                .enableNearCache(1 << 20, 1, MINUTES, key -> key.startsWith("cached")) //
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void testOneConnection() {
+        String value = helper.withSession(session -> {
+            assertEquals(1, pool.getNumActive());
+            session.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+            Map<String, String> values = session.pipeline(keys, PipelineBase::get);
+            assertEquals(keys.size(), values.size());
+            session.getBinary().set("binary".getBytes(UTF_8), "b".getBytes(UTF_8));
+            session.get().set("name", "key7");
+            return session.get().get(session.get().get("name"));
+        });
+        assertEquals("vkey7", value);
+        assertEquals(1, server.getConnections());
+        assertEquals(0, pool.getNumActive());
+        assertEquals(1, pool.getNumIdle());
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void testClosedAfterBlock() {
+        JedisHelper<Pipeline, Jedis>.Session session = helper.withSession(s -> s);
+        try {
+            session.get().get("key1");
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            session.pipeline(keys, PipelineBase::get);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFailedPipeline() {
+        helper.pipeline(keys, (p, k) -> p.set(k, "v" + k));
+        server.resetNext("key20");
+        try {
+            helper.withSession(session -> session.pipeline(keys, PipelineBase::get));
+            fail();
+        } catch (JedisConnectionException expected) {
+            // expected
+        }
+        assertEquals(1, failures.get());
+        // the broken connection is not returned to the pool
+        assertEquals("vkey20", helper.get().get("key20"));
+        assertEquals(2, server.getConnections());
+    }
+
+    @Test
+    public void testWritesInvalidateNearCache() {
+        helper.get().set("cached1", "a");
+        assertEquals("a", helper.get().get("cached1"));
+        helper.withSession(session -> session.get().set("cached1", "b"));
+        assertEquals("b", helper.get().get("cached1"));
+        helper.withSession(session -> session.get().del("cached1"));
+        assertNull(helper.get().get("cached1"));
+    }
+}
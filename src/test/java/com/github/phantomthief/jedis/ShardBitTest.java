@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class ShardBitTest {
+
+    // not a multiple of 8, so shards don't end at byte boundaries
+    private static final int RANGE = 100;
+    private static final int BITS = 1000;
+
+    /**
+     * edges inside a byte, on byte boundaries, across shards and over the last bit set.
+     */
+    private static final long[][] EDGES = { { 0, BITS - 1 }, { 3, 5 }, { 8, 15 }, { 7, 8 },
+            { 9, 9 }, { 95, 105 }, { 96, 103 }, { 99, 100 }, { 100, 199 }, { 50, 450 },
+            { 13, 990 }, { 900, 5000 }, };
+
+    private final Random random = new Random(0);
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisHelper<Pipeline, Jedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        helper = JedisHelper.newBuilder(() -> pool).withPipelinePartitionSize(7).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    private BitSet fill(String keyPrefix) {
+        BitSet expected = new BitSet();
+        // the last shard is left short, so ranges may run over the strings
+        for (int i = 0; i < BITS - 30; i++) {
+            if (random.nextInt(3) == 0) {
+                expected.set(i);
+            }
+        }
+        helper.setShardBits(expected.stream().asLongStream().toArray(), keyPrefix, RANGE, true);
+        return expected;
+    }
+
+    private void assertBits(BitSet expected, String keyPrefix) {
+        long[] all = new long[BITS];
+        for (int i = 0; i < BITS; i++) {
+            all[i] = i;
+        }
+        assertEquals(expected, helper.getShardBits(all, keyPrefix, RANGE));
+    }
+
+    private static void clear(BitSet bits, long start, long end) {
+        bits.clear((int) start, (int) Math.min(end, BITS - 1) + 1);
+    }
+
+    @Test
+    public void testGetAndSet() {
+        BitSet expected = fill("bits");
+        assertBits(expected, "bits");
+        long[] changed = { 0, 1, 99, 100, 101, 555 };
+        BitSet wasSet = helper.setShardBits(changed, "bits", RANGE, false);
+        for (int i = 0; i < changed.length; i++) {
+            assertEquals(expected.get((int) changed[i]), wasSet.get(i));
+            expected.clear((int) changed[i]);
+        }
+        assertBits(expected, "bits");
+    }
+
+    @Test
+    public void testCount() {
+        BitSet expected = fill("bits");
+        for (long[] edge : EDGES) {
+            long count = expected.get((int) edge[0], (int) Math.min(edge[1], BITS) + 1)
+                    .cardinality();
+            assertEquals(edge[0] + "-" + edge[1], count,
+                    helper.getShardBitCount("bits", RANGE, edge[0], edge[1]));
+        }
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(BITS);
+            int end = start + random.nextInt(BITS - start);
+            assertEquals(start + "-" + end, expected.get(start, end + 1).cardinality(),
+                    helper.getShardBitCount("bits", RANGE, start, end));
+        }
+    }
+
+    @Test
+    public void testIterate() {
+        BitSet expected = fill("bits");
+        // a missing shard in the middle of a batch of 7 keys
+        helper.get().del("bits_3");
+        expected.clear(3 * RANGE, 4 * RANGE);
+        for (long[] edge : EDGES) {
+            long[] bits = expected.stream().asLongStream()
+                    .filter(bit -> bit >= edge[0] && bit <= edge[1]).toArray();
+            String range = edge[0] + "-" + edge[1];
+            assertArrayEquals(range, bits,
+                    helper.iterateShardBitAsLong("bits", RANGE, edge[0], edge[1]).toArray());
+            assertEquals(range, LongStream.of(bits).boxed().collect(toList()),
+                    helper.iterateShardBit("bits", RANGE, edge[0], edge[1]).collect(toList()));
+            LongStream.Builder consumed = LongStream.builder();
+            helper.forEachShardBit("bits", RANGE, edge[0], edge[1], consumed);
+            assertArrayEquals(range, bits, consumed.build().toArray());
+        }
+        assertEquals(0, helper.iterateShardBitAsLong("missing", RANGE, 0, BITS).count());
+        // short-circuited before the last batch
+        List<Long> first = helper.iterateShardBit("bits", RANGE, 0, BITS).limit(3)
+                .collect(toList());
+        assertEquals(expected.stream().limit(3).asLongStream().boxed().collect(toList()), first);
+    }
+
+    @Test
+    public void testDel() {
+        for (long[] edge : EDGES) {
+            String keyPrefix = "bits" + edge[0] + "-" + edge[1];
+            BitSet expected = fill(keyPrefix);
+            helper.delShardBit(keyPrefix, RANGE, edge[0], edge[1]);
+            clear(expected, edge[0], edge[1]);
+            assertBits(expected, keyPrefix);
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        for (long[] edge : EDGES) {
+            String fromPrefix = "from" + edge[0] + "-" + edge[1];
+            String toPrefix = "to" + edge[0] + "-" + edge[1];
+            BitSet from = fill(fromPrefix);
+            BitSet to = fill(toPrefix);
+            helper.copyShardBit(fromPrefix, toPrefix, RANGE, edge[0], edge[1]);
+            clear(to, edge[0], edge[1]);
+            BitSet copied = from.get(0, (int) Math.min(edge[1], BITS - 1) + 1);
+            copied.clear(0, (int) edge[0]);
+            to.or(copied);
+            assertBits(to, toPrefix);
+            assertBits(from, fromPrefix);
+        }
+    }
+
+    @Test
+    public void testCopyFromMissingShards() {
+        BitSet to = fill("to");
+        helper.copyShardBit("missing", "to", RANGE, 42, 321);
+        clear(to, 42, 321);
+        assertBits(to, "to");
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+
+public class ShardBitWriteBufferTest {
+
+    private static final int RANGE = 1000;
+
+    private final AtomicBoolean down = new AtomicBoolean();
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisPool deadPool;
+    private JedisHelper<Pipeline, Jedis> helper;
+    private ShardBitWriteBuffer buffer;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        try (MockRedisServer dead = new MockRedisServer()) {
+            deadPool = new JedisPool("127.0.0.1", dead.getPort());
+        }
+        helper = JedisHelper.newBuilder(() -> down.get() ? deadPool : pool).build();
+        // flushed by hand only
+        buffer = ShardBitWriteBuffer.newBuilder(helper, "bits", RANGE) //
+                .flushInterval(1, HOURS) //
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        down.set(false);
+        buffer.close();
+        pool.close();
+        deadPool.close();
+        server.close();
+    }
+
+    @Test
+    public void testCoalesce() {
+        for (int i = 0; i < 10; i++) {
+            buffer.set(1);
+            buffer.clear(2);
+        }
+        buffer.set(2);
+        assertEquals(2, buffer.getPending());
+        assertFalse(helper.getShardBit(1, "bits", RANGE));
+        buffer.flush();
+        assertEquals(0, buffer.getPending());
+        assertEquals(21, buffer.getReceived());
+        assertEquals(2, buffer.getWritten());
+        assertTrue(helper.getShardBit(1, "bits", RANGE));
+        assertTrue(helper.getShardBit(2, "bits", RANGE));
+    }
+
+    @Test
+    public void testRequeueFailedFlush() {
+        helper.setShardBit(3, "bits", RANGE);
+        buffer.set(1);
+        buffer.set(1500);
+        buffer.clear(3);
+        down.set(true);
+        try {
+            buffer.flush();
+            fail();
+        } catch (JedisException expected) {
+            // expected
+        }
+        assertEquals(1, buffer.getFlushFailures());
+        assertEquals(3, buffer.getPending());
+        // a write after the failure wins over the requeued one
+        buffer.clear(1);
+        assertEquals(3, buffer.getPending());
+
+        down.set(false);
+        buffer.flush();
+        assertEquals(0, buffer.getPending());
+        assertFalse(helper.getShardBit(1, "bits", RANGE));
+        assertTrue(helper.getShardBit(1500, "bits", RANGE));
+        assertFalse(helper.getShardBit(3, "bits", RANGE));
+    }
+
+    @Test
+    public void testCapacityHoldsBitsBeingWritten() {
+        try (ShardBitWriteBuffer small = ShardBitWriteBuffer.newBuilder(helper, "bits", RANGE) //
+                .maxBatchSize(2) //
+                .capacity(2) //
+                .flushInterval(1, HOURS) //
+                .build()) {
+            server.delayNext(JedisHelper.getShardBitKey(1, "bits", RANGE), 500);
+            long start = System.nanoTime();
+            small.set(1);
+            // blocks until the flush it requested is written, not just drained
+            small.set(2);
+            assertTrue(NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+            assertEquals(0, small.getPending());
+            assertTrue(helper.getShardBit(1, "bits", RANGE));
+            assertTrue(helper.getShardBit(2, "bits", RANGE));
+        }
+    }
+
+    @Test
+    public void testPercentInKeyPrefix() {
+        try (ShardBitWriteBuffer percent = ShardBitWriteBuffer.newBuilder(helper, "100%", RANGE)
+                .build()) {
+            percent.set(3);
+            percent.flush();
+            assertTrue(helper.getShardBit(3, "100%", RANGE));
+        }
+    }
+
+    @Test
+    public void testCloseFlushes() {
+        buffer.set(7);
+        buffer.close();
+        assertTrue(helper.getShardBit(7, "bits", RANGE));
+        try {
+            buffer.set(8);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+}
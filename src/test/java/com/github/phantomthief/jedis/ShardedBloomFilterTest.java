@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package com.github.phantomthief.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Funnels;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+public class ShardedBloomFilterTest {
+
+    private static final int INSERTIONS = 1000;
+
+    private MockRedisServer server;
+    private JedisPool pool;
+    private JedisHelper<Pipeline, Jedis> helper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockRedisServer();
+        pool = new JedisPool("127.0.0.1", server.getPort());
+        helper = JedisHelper.newBuilder(() -> pool).withPipelinePartitionSize(100).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    private ShardedBloomFilter<String> filter() {
+        return ShardedBloomFilter.<String> newBuilder(helper, "bloom",
+                Funnels.stringFunnel(UTF_8)) //
+                .expectedInsertions(INSERTIONS) //
+                .fpp(0.01) //
+                .keyHashRange(1000) //
+                .build();
+    }
+
+    private static List<String> elements(String prefix) {
+        return IntStream.range(0, INSERTIONS).mapToObj(i -> prefix + i).collect(toList());
+    }
+
+    @Test
+    public void testPutAndMightContain() {
+        ShardedBloomFilter<String> filter = filter();
+        // over many shard keys
+        assertTrue(filter.getBitSize() > 5 * 1000);
+        assertEquals(7, filter.getHashFunctions());
+
+        List<String> put = elements("put");
+        Map<String, Boolean> changed = filter.put(put);
+        assertEquals(put.size(), changed.size());
+        assertTrue(changed.values().stream().filter(b -> b).count() > INSERTIONS * 0.95);
+        assertFalse(filter.put("put1"));
+
+        // another client built the same way
+        Map<String, Boolean> contained = filter().mightContain(put);
+        assertEquals(put.size(), contained.size());
+        assertTrue(contained.values().stream().allMatch(b -> b));
+
+        long falsePositives = filter.mightContain(elements("other")).values().stream()
+                .filter(b -> b).count();
+        assertTrue(falsePositives + " false positives", falsePositives < INSERTIONS * 0.03);
+
+        long count = filter.approximateElementCount();
+        assertTrue(count + " elements", Math.abs(count - INSERTIONS) < INSERTIONS * 0.1);
+    }
+
+    @Test
+    public void testDuplicatesInBatch() {
+        ShardedBloomFilter<String> filter = filter();
+        assertEquals(ImmutableMap.of("a", true, "b", true),
+                filter.put(ImmutableList.of("a", "b", "a")));
+        assertEquals(ImmutableMap.of("a", false, "c", true),
+                filter.put(ImmutableList.of("a", "c", "a")));
+        assertEquals(ImmutableMap.of("a", true, "d", false),
+                filter.mightContain(ImmutableList.of("a", "d", "a")));
+    }
+
+    @Test
+    public void testClear() {
+        ShardedBloomFilter<String> filter = filter();
+        filter.put(elements("put"));
+        filter.clear();
+        assertEquals(0, filter.approximateElementCount());
+        assertFalse(filter.mightContain(elements("put")).containsValue(true));
+        assertTrue(filter.put("put1"));
+    }
+}